@@ -21,6 +21,8 @@
  */
 package org.jboss.resource.adapter.jms;
 
+import java.util.Arrays;
+
 import javax.resource.spi.ConnectionRequestInfo;
 
 import javax.jms.Session;
@@ -154,7 +156,7 @@ public class JmsConnectionRequestInfo implements ConnectionRequestInfo {
             hashCode += userName.hashCode();
         }
         if (password != null) {
-            hashCode += new String(password).hashCode();
+            hashCode += Arrays.hashCode(password);
         }
         if (clientID != null) {
             hashCode += clientID.hashCode();
@@ -21,8 +21,13 @@
  */
 package org.jboss.resource.adapter.jms;
 
+import java.util.ArrayList;
 import java.util.Set;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -64,7 +69,17 @@ public class JmsCred {
             jc.name = ((JmsConnectionRequestInfo) info).getUserName();
             jc.pwd = ((JmsConnectionRequestInfo) info).getPassword();
         } else if (subject != null) {
-            // Credentials from appserver
+            // Credentials from appserver, resolved again once the credentials of the subject changed
+            Cache cache = mcf instanceof JmsManagedConnectionFactory
+                    ? ((JmsManagedConnectionFactory) mcf).getCredentialCache() : null;
+            Object[] credentials = null;
+            if (cache != null) {
+                credentials = Cache.getPasswordCredentials(subject);
+                JmsCred cached = cache.get(subject, credentials);
+                if (cached != null) {
+                    return cached;
+                }
+            }
             PasswordCredential pwdc = GetCredentialAction.getCredential(subject, mcf);
             if (pwdc == null) {
                 // No hit - we do need creds
@@ -72,6 +87,9 @@ public class JmsCred {
             }
             jc.name = pwdc.getUserName();
             jc.pwd = pwdc.getPassword();
+            if (cache != null) {
+                cache.put(subject, credentials, jc);
+            }
         } else {
             throw new SecurityException("No Subject or ConnectionRequestInfo set, could not get credentials");
         }
@@ -83,6 +101,118 @@ public class JmsCred {
         return super.toString() + "{ username=" + name + ", password=**** }";
     }
 
+    /**
+     * The credentials resolved from subjects, by subject identity since comparing
+     * subjects walks their credentials. An entry is only used while the subject
+     * holds the same password credential instances as when it was resolved, which
+     * is checked without comparing managed connection factories. Subjects are only
+     * weakly referenced. The cached credentials must not be modified.
+     */
+    static final class Cache {
+        private final int maxSize;
+
+        private final ConcurrentHashMap<SubjectKey, Entry> entries = new ConcurrentHashMap<>();
+
+        private final ReferenceQueue<Subject> queue = new ReferenceQueue<>();
+
+        Cache(final int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @param subject     the subject
+         * @param credentials the password credentials the subject holds
+         * @return the credentials resolved from the subject, or null
+         */
+        JmsCred get(Subject subject, Object[] credentials) {
+            Entry entry = entries.get(new SubjectKey(subject, null));
+            if (entry == null || entry.credentials.length != credentials.length) {
+                return null;
+            }
+            for (int i = 0; i < credentials.length; ++i) {
+                if (entry.credentials[i] != credentials[i]) {
+                    return null;
+                }
+            }
+            return entry.cred;
+        }
+
+        /**
+         * @param subject     the subject
+         * @param credentials the password credentials the subject held before the credentials were resolved
+         * @param cred        the credentials resolved from the subject
+         */
+        void put(Subject subject, Object[] credentials, JmsCred cred) {
+            Reference<? extends Subject> cleared;
+            while ((cleared = queue.poll()) != null) {
+                entries.remove(cleared);
+            }
+            if (entries.size() >= maxSize) {
+                entries.clear();
+            }
+            entries.put(new SubjectKey(subject, queue), new Entry(credentials, cred));
+        }
+
+        /**
+         * @param subject the subject
+         * @return the password credential instances of the subject, in iteration order
+         */
+        static Object[] getPasswordCredentials(final Subject subject) {
+            return AccessController.doPrivileged(new PrivilegedAction<Object[]>() {
+                @Override
+                public Object[] run() {
+                    Set<Object> creds = subject.getPrivateCredentials();
+                    ArrayList<Object> result = new ArrayList<>();
+                    synchronized (creds) {
+                        for (Object cred : creds) {
+                            if (cred instanceof PasswordCredential) {
+                                result.add(cred);
+                            }
+                        }
+                    }
+                    return result.toArray();
+                }
+            });
+        }
+    }
+
+    private static final class Entry {
+        private final Object[] credentials;
+
+        private final JmsCred cred;
+
+        Entry(Object[] credentials, JmsCred cred) {
+            this.credentials = credentials;
+            this.cred = cred;
+        }
+    }
+
+    private static final class SubjectKey extends WeakReference<Subject> {
+        private final int hash;
+
+        SubjectKey(Subject subject, ReferenceQueue<Subject> queue) {
+            super(subject, queue);
+            this.hash = System.identityHashCode(subject);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SubjectKey)) {
+                return false;
+            }
+            Subject subject = get();
+            return subject != null && subject == ((SubjectKey) obj).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     private static class GetCredentialAction implements PrivilegedAction<PasswordCredential> {
         Subject subject;
         ManagedConnectionFactory mcf;
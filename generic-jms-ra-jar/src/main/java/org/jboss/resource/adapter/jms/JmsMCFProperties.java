@@ -21,6 +21,8 @@
  */
 package org.jboss.resource.adapter.jms;
 
+import java.util.Arrays;
+
 import javax.jms.Destination;
 import javax.jms.JMSContext;
 import javax.jms.Queue;
@@ -176,12 +178,12 @@ public class JmsMCFProperties implements java.io.Serializable {
     }
 
     /**
-     * Simple hashCode of all attributes.
+     * Simple hashCode of the attributes compared by equals.
      */
     @Override
     public int hashCode() {
-        // FIXME
-        String result = "" + userName + password + type;
-        return result.hashCode();
+        int result = userName != null ? userName.hashCode() : 0;
+        result = 31 * result + Arrays.hashCode(password);
+        return 31 * result + type;
     }
 }
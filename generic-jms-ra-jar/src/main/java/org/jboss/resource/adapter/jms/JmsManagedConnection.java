@@ -21,21 +21,28 @@
  */
 package org.jboss.resource.adapter.jms;
 
+import org.jboss.resource.adapter.jms.util.DestinationCache;
 import org.jboss.resource.adapter.jms.util.SecurityActions;
 import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.TimeUnit;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
 import javax.jms.ExceptionListener;
 import javax.jms.JMSContext;
 import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
 import javax.jms.QueueConnection;
 import javax.jms.QueueConnectionFactory;
 import javax.jms.ResourceAllocationException;
@@ -52,7 +59,6 @@ import javax.jms.XASession;
 import javax.jms.XATopicConnection;
 import javax.jms.XATopicConnectionFactory;
 import javax.jms.XATopicSession;
-import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionEvent;
@@ -67,7 +73,6 @@ import javax.security.auth.Subject;
 import javax.transaction.xa.XAResource;
 
 import org.jboss.logging.Logger;
-import org.jboss.resource.adapter.jms.inflow.JmsActivation;
 
 /**
  * <p>
@@ -163,9 +168,29 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
     private XASession xaSession = null;
     private XAResource xaResource = null;
     private boolean xaTransacted = false;
-    private JMSContext context = null;
+    private volatile JMSContext context = null;
     private XAJMSContext xaContext = null;
 
+    /**
+     * The connection factory, kept to create the JMSContext of the agnostic session type on first use
+     */
+    private Object factory = null;
+
+    /**
+     * The message producers closed by handles, by destination, least recently used first
+     */
+    private final LinkedHashMap<Destination, MessageProducer> producers = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The queues and topics created by name, if cached
+     */
+    private DestinationCache destinationCache = null;
+
+    /**
+     * The physical connection shared with other managed connections, if any
+     */
+    private JmsPhysicalConnection physicalConnection = null;
+
     /**
      * Holds all current JmsSession handles.
      */
@@ -260,7 +285,9 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
      */
     private void destroyHandles() throws ResourceException {
         try {
-            if (con != null) {
+            if (physicalConnection != null) {
+                physicalConnection.stop(this);
+            } else if (con != null) {
                 con.stop();
             }
         } catch (Throwable t) {
@@ -292,13 +319,18 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                 return;
             }
 
-            try {
-                con.setExceptionListener(null);
-            } catch (JMSException e) {
-                log.debug("Error unsetting the exception listener " + this, e);
+            if (physicalConnection != null) {
+                physicalConnection.removeListener(this);
+            } else {
+                try {
+                    con.setExceptionListener(null);
+                } catch (JMSException e) {
+                    log.debug("Error unsetting the exception listener " + this, e);
+                }
             }
 
             destroyHandles();
+            closeProducers();
 
             try {
                 if (xaTransacted && xaContext != null) {
@@ -322,12 +354,17 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                 } catch (JMSException e) {
                     log.debug("Error closing xaSession " + this, e);
                 }
-                    
-                con.close();
+
+                if (physicalConnection != null) {
+                    mcf.releasePhysicalConnection(physicalConnection);
+                } else {
+                    con.close();
+                }
             } catch (Throwable e) {
                 throw new ResourceException("Could not properly close the session and connection", e);
             } finally {
                 isDestroyed = true;
+                mcf.removeManagedConnection(this);
             }
         }
     }
@@ -558,6 +595,9 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
 
         log.warn("Handling jms exception failure: " + this, exception);
 
+        // The cached connection factory may be stale
+        mcf.getJndiCache().invalidate(mcf.getJndiParameters(), mcf.getConnectionFactory());
+
         // We need to unlock() before sending the connection error to the
         // event listeners. Otherwise the lock won't be in sync once
         // cleanup() is called
@@ -565,10 +605,14 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
             unlock();
         }
 
-        try {
-            con.setExceptionListener(null);
-        } catch (JMSException e) {
-            log.debug("Unable to unset exception listener", e);
+        if (physicalConnection != null) {
+            physicalConnection.removeListener(this);
+        } else {
+            try {
+                con.setExceptionListener(null);
+            } catch (JMSException e) {
+                log.debug("Unable to unset exception listener", e);
+            }
         }
 
         ConnectionEvent event = new ConnectionEvent(this, ConnectionEvent.CONNECTION_ERROR_OCCURRED, exception);
@@ -587,10 +631,121 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
 
     /**
      * Get the JMSContext for this connection.
+     * With the agnostic session type, it is only created on first use since
+     * it opens a connection of its own.
+     *
      * @return the JMSContext for this connection.
      */
     protected JMSContext getJMSContext() {
-        return context;
+        JMSContext result = context;
+        if (result != null || factory == null || mcf.getProperties().getType() != JmsConnectionFactory.AGNOSTIC) {
+            return result;
+        }
+        synchronized (this) {
+            if (context == null && !isDestroyed) {
+                ClassLoader oldTCCL = SecurityActions.getThreadContextClassLoader();
+                try {
+                    SecurityActions.setThreadContextClassLoader(JmsManagedConnection.class.getClassLoader());
+                    createContext(factory);
+                } finally {
+                    SecurityActions.setThreadContextClassLoader(oldTCCL);
+                }
+                if (log.isTraceEnabled()) {
+                    log.trace("created context: " + context);
+                }
+            }
+            return context;
+        }
+    }
+
+    /**
+     * @return the queues and topics created by name, or null when they are not cached
+     */
+    DestinationCache getDestinationCache() {
+        return destinationCache;
+    }
+
+    /**
+     * Take a producer cached for a destination
+     *
+     * @param destination the destination, null for an unidentified producer
+     * @param type        the type of producer
+     * @return the producer, or null when none is cached
+     */
+    MessageProducer takeProducer(Destination destination, Class<? extends MessageProducer> type) {
+        synchronized (producers) {
+            MessageProducer producer = producers.get(destination);
+            if (producer == null || !type.isInstance(producer)) {
+                return null;
+            }
+            producers.remove(destination);
+            return producer;
+        }
+    }
+
+    /**
+     * Cache the producer closed by a handle, reset to the default delivery settings
+     *
+     * @param destination the destination, null for an unidentified producer
+     * @param producer    the producer
+     * @return whether the producer was cached, otherwise it has to be closed
+     */
+    boolean returnProducer(Destination destination, MessageProducer producer) {
+        int size = mcf.getProducerCacheSize() != null ? mcf.getProducerCacheSize() : 0;
+        if (size <= 0 || isDestroyed) {
+            return false;
+        }
+        try {
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            producer.setPriority(Message.DEFAULT_PRIORITY);
+            producer.setTimeToLive(Message.DEFAULT_TIME_TO_LIVE);
+            producer.setDisableMessageID(false);
+            producer.setDisableMessageTimestamp(false);
+            if (mcf.isJMS20()) {
+                producer.setDeliveryDelay(Message.DEFAULT_DELIVERY_DELAY);
+            }
+        } catch (Throwable t) {
+            log.trace("Unable to reset producer " + producer + ", closing it", t);
+            return false;
+        }
+
+        MessageProducer evicted = null;
+        synchronized (producers) {
+            MessageProducer previous = producers.put(destination, producer);
+            if (previous != null && previous != producer) {
+                evicted = previous;
+            } else if (producers.size() > size) {
+                Iterator<Map.Entry<Destination, MessageProducer>> i = producers.entrySet().iterator();
+                evicted = i.next().getValue();
+                i.remove();
+            }
+        }
+        if (evicted != null) {
+            closeProducer(evicted);
+        }
+        return true;
+    }
+
+    /**
+     * Close the cached producers
+     */
+    private void closeProducers() {
+        MessageProducer[] cached;
+        synchronized (producers) {
+            cached = producers.values().toArray(new MessageProducer[producers.size()]);
+            producers.clear();
+        }
+        for (MessageProducer producer : cached) {
+            closeProducer(producer);
+        }
+    }
+
+    private void closeProducer(MessageProducer producer) {
+        try {
+            producer.close();
+        } catch (Throwable t) {
+            log.trace("Error closing cached producer " + producer, t);
+        }
     }
 
     /**
@@ -666,11 +821,20 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
     }
 
     void start() throws JMSException {
-        con.start();
+        if (physicalConnection != null) {
+            physicalConnection.start(this);
+        } else {
+            con.start();
+        }
     }
 
     void stop() throws JMSException {
-        con.stop();
+        // A shared connection keeps running while other managed connections have it started
+        if (physicalConnection != null) {
+            physicalConnection.stop(this);
+        } else {
+            con.stop();
+        }
     }
 
     // --- Used by MetaData
@@ -699,7 +863,6 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
             try {
                 SecurityActions.setThreadContextClassLoader(JmsManagedConnection.class.getClassLoader());
 
-                Context jndiContext = JmsActivation.convertStringToContext(mcf.getJndiParameters());
                 Object factory;
                 boolean transacted = info.isTransacted();
                 int ack = transacted ? Session.SESSION_TRANSACTED : info.getAcknowledgeMode();
@@ -708,8 +871,15 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                 if (connectionFactory == null) {
                     throw new IllegalStateException("No configured 'connectionFactory'.");
                 }
-                factory = jndiContext.lookup(connectionFactory);
-                con = createConnection(factory, user, pwd, transacted, ack);
+                factory = mcf.getJndiCache().lookup(mcf.getJndiParameters(), connectionFactory);
+                this.factory = factory;
+                try {
+                    con = openConnection(factory, transacted, ack);
+                } catch (JMSException | RuntimeException e) {
+                    // The cached factory may be stale
+                    mcf.getJndiCache().invalidate(mcf.getJndiParameters(), connectionFactory);
+                    throw e;
+                }
 
                 if (con instanceof XAConnection && transacted) {
                     switch (mcf.getProperties().getType()) {
@@ -744,11 +914,15 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                                      + "It will not be able to participate in a Global UOW");
                     }
                 }
-                con.setExceptionListener(this);
+                if (physicalConnection == null) {
+                    con.setExceptionListener(this);
+                }
                 if (trace) {
                     log.trace("created connection: " + con);
                 }
 
+                destinationCache = mcf.getDestinationCache();
+
                 log.debug("xaSession=" + xaSession + ", Session=" + session);
                 log.debug("transacted=" + transacted + ", ack=" + ack);
                 isSetUp = true;
@@ -760,6 +934,55 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
         }
     }
 
+    /**
+     * Open the connection, or join a physical connection shared with other
+     * managed connections when the managed connection factory allows it.
+     *
+     * @param factory    the connection factory
+     * @param transacted whether the session is transacted
+     * @param ack        the acknowledge mode
+     * @return the connection
+     * @throws JMSException Failed to create connection.
+     */
+    private Connection openConnection(final Object factory, boolean transacted, int ack) throws JMSException {
+        if (!mcf.isSharingConnections()) {
+            return createConnection(factory, user, pwd, transacted, ack);
+        }
+
+        physicalConnection = mcf.acquirePhysicalConnection(JmsPhysicalConnection.getKey(user, pwd, info.getClientID()));
+        try {
+            return physicalConnection.getConnection(this, factory, user, pwd, transacted, ack);
+        } catch (JMSException | RuntimeException e) {
+            mcf.releasePhysicalConnection(physicalConnection);
+            physicalConnection = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Create the JMSContext of the agnostic session type when the provider supports JMS 2.0.
+     * It is created from the factory since a JMSContext cannot be derived from a Connection.
+     *
+     * @param factory the connection factory
+     */
+    private void createContext(final Object factory) {
+        if (mcf.getProperties().getType() != JmsConnectionFactory.AGNOSTIC) {
+            return;
+        }
+        if (factory instanceof XAConnectionFactory) {
+            XAConnectionFactory xaConnFactory = (XAConnectionFactory) factory;
+            if (isJMS_2_0(xaConnFactory)) {
+                xaContext = user != null ? xaConnFactory.createXAContext(user, pwd) : xaConnFactory.createXAContext();
+                context = xaContext.getContext();
+            }
+        } else if (factory instanceof ConnectionFactory) {
+            ConnectionFactory nonXAConnFactory = (ConnectionFactory) factory;
+            if (isJMS_2_0(nonXAConnFactory)) {
+                context = user != null ? nonXAConnFactory.createContext(user, pwd) : nonXAConnFactory.createContext();
+            }
+        }
+    }
+
     /**
      * Create a connection from the given factory.An XA connection will be
      * created if possible.
@@ -805,13 +1028,7 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                     }
                     case JmsConnectionFactory.AGNOSTIC: {
                         Connection realConnection = xaConnFactory.createXAConnection(username, password);
-                        if (isJMS_2_0(xaConnFactory)) {
-                            xaContext = xaConnFactory.createXAContext(username, password);
-                            context = xaContext.getContext();
-                        } else {
-                            context = null;
-                            xaContext = null;
-                        }
+                        // The JMSContext is only created on first use
                         connection = new JmsConnectionSession(realConnection, createSession(realConnection, transacted, ack));
                         break;
                     }
@@ -847,13 +1064,7 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                     }
                     case JmsConnectionFactory.AGNOSTIC: {
                         Connection realConnection = xaConnFactory.createXAConnection();
-                        if(isJMS_2_0(xaConnFactory)) {
-                            xaContext = xaConnFactory.createXAContext();
-                            context = xaContext.getContext();
-                        } else {
-                            xaContext = null;
-                            context = null;
-                        }
+                        // The JMSContext is only created on first use
                         connection = new JmsConnectionSession(realConnection, createSession(realConnection, transacted, ack));
                         break;
                     }
@@ -893,11 +1104,7 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                     }
                     case JmsConnectionFactory.AGNOSTIC: {
                         Connection realConnection = nonXAConnFactory.createConnection(username, password);
-                        if(isJMS_2_0(nonXAConnFactory)) {
-                            context = nonXAConnFactory.createContext(username, password);
-                        } else {
-                            context = null;
-                        }
+                        // The JMSContext is only created on first use
                         connection = new JmsConnectionSession(realConnection, createSession(realConnection, transacted, ack));
                         break;
                     }
@@ -933,11 +1140,7 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
                     }
                     case JmsConnectionFactory.AGNOSTIC: {
                         Connection realConnection = nonXAConnFactory.createConnection();
-                        if(isJMS_2_0(nonXAConnFactory)) {
-                            context = nonXAConnFactory.createContext();
-                        } else {
-                            context = null;
-                        }
+                        // The JMSContext is only created on first use
                         connection = new JmsConnectionSession(realConnection, createSession(realConnection, transacted, ack));
                         break;
                     }
@@ -1016,6 +1219,7 @@ public class JmsManagedConnection implements ManagedConnection, ExceptionListene
            + ", isDestroyed=" + isDestroyed
            + ", lock=" + lock
            + ", con=" + con
+           + ", physicalConnection=" + physicalConnection
            + ", session=" + (session != null ? (session.getClass() + "@" + session.hashCode()) : "null")
            + ", xaSession=" + (xaSession != null ? (xaSession.getClass() + "@" + xaSession.hashCode()) : "null")
            + ", xaResource=" + xaResource
@@ -22,8 +22,16 @@
 package org.jboss.resource.adapter.jms;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 import javax.jms.ConnectionMetaData;
 import javax.resource.ResourceException;
@@ -31,9 +39,13 @@ import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ResourceAdapter;
+import javax.resource.spi.ResourceAdapterAssociation;
 import javax.security.auth.Subject;
 
 import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.util.DestinationCache;
+import org.jboss.resource.adapter.jms.util.JndiCache;
 import org.jboss.resource.adapter.jms.util.Strings;
 
 /**
@@ -42,7 +54,7 @@ import org.jboss.resource.adapter.jms.util.Strings;
  * @author <a href="mailto:peter.antman@tim.se">Peter Antman </a>.
  * @author <a href="mailto:adrian@jboss.com">Adrian Brock</a>
  */
-public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
+public class JmsManagedConnectionFactory implements ManagedConnectionFactory, ResourceAdapterAssociation {
     private static final long serialVersionUID = -923483284031773011L;
 
     private static final Logger log = Logger.getLogger(JmsManagedConnection.class);
@@ -72,6 +84,66 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
      */
     private Boolean jms_2_0 = true;
 
+    /**
+     * The number of managed connections sharing a physical connection, 0 or 1 for a connection each.
+     */
+    private Integer sessionsPerConnection = 0;
+
+    /**
+     * The number of message producers each managed connection keeps open across handles, 0 to close them.
+     */
+    private Integer producerCacheSize = 0;
+
+    /**
+     * The number of queues and topics cached by name, 0 to always ask the provider.
+     */
+    private Integer destinationCacheSize = 0;
+
+    /**
+     * Whether the destination cache is shared by all the managed connections rather than kept by each.
+     */
+    private Boolean shareDestinationCache = false;
+
+    /**
+     * The destination cache shared by all the managed connections
+     */
+    private transient DestinationCache sharedDestinationCache;
+
+    /**
+     * The number of destinations found in the destination caches
+     */
+    private final AtomicLong destinationCacheHits = new AtomicLong();
+
+    /**
+     * The number of destinations not found in the destination caches
+     */
+    private final AtomicLong destinationCacheMisses = new AtomicLong();
+
+    /**
+     * The resource adapter
+     */
+    private transient ResourceAdapter ra;
+
+    /**
+     * The JNDI cache used when the factory is not associated with a resource adapter
+     */
+    private transient JndiCache jndiCache;
+
+    /**
+     * The managed connections created by this factory, by user name and request info
+     */
+    private transient volatile ConcurrentHashMap<MatchKey, Set<JmsManagedConnection>> managedConnections;
+
+    /**
+     * The physical connections shared by managed connections, by credentials and client id
+     */
+    private transient Map<String, List<JmsPhysicalConnection>> physicalConnections;
+
+    /**
+     * The credentials resolved from subjects
+     */
+    private transient volatile JmsCred.Cache credentialCache;
+
     public JmsManagedConnectionFactory() {
         // empty
     }
@@ -121,6 +193,7 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
 
         // OK we got autentication stuff
         JmsManagedConnection mc = new JmsManagedConnection(this, info, cred.name, Strings.fromCharArray(cred.pwd));
+        addManagedConnection(mc);
 
         if (trace) {
             log.trace("created new managed connection: " + mc);
@@ -146,8 +219,22 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
             log.trace("Looking for connection matching credentials: " + cred);
         }
 
-        // Traverse the pooled connections and look for a match, return first
-        // found
+        // Look up the connections of this factory with the same user and info first
+        JmsManagedConnection match = findManagedConnection(connectionSet, new MatchKey(cred.name, (JmsConnectionRequestInfo) info));
+        if (match == null && cred.name != null) {
+            // Anonymous connections match any user
+            match = findManagedConnection(connectionSet, new MatchKey(null, (JmsConnectionRequestInfo) info));
+        }
+        if (match != null) {
+            if (trace) {
+                log.trace("Found matching connection: " + match);
+            }
+            return match;
+        }
+
+        // Traverse the pooled connections of other equal factories and look for a match, return first
+        // found. The index only holds the connections of this factory, so the scan stays; it only runs
+        // when there is no match and a connection is about to be created, which costs far more.
         Iterator connections = connectionSet.iterator();
 
         while (connections.hasNext()) {
@@ -161,6 +248,11 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
                 // Check if we even created this on
                 ManagedConnectionFactory mcf = mc.getManagedConnectionFactory();
 
+                // The connections of this factory were looked up above
+                if (mcf == this) {
+                    continue;
+                }
+
                 // Only admit a connection if it has the same username as our
                 // asked for creds
 
@@ -341,6 +433,315 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
         return deleteTemporaryDestinations;
     }
 
+    /**
+     * Get the number of managed connections sharing a physical connection.
+     *
+     * @return the number of managed connections sharing a physical connection, 0 or 1 for a connection each.
+     */
+    public Integer getSessionsPerConnection() {
+        return sessionsPerConnection;
+    }
+
+    /**
+     * Set the number of managed connections sharing a physical connection.
+     * Each managed connection then only creates its own session on a shared connection.
+     * Not applicable to the JMSContext session type.
+     *
+     * @param sessionsPerConnection the number of managed connections sharing a physical connection, 0 or 1 for a connection each.
+     */
+    public void setSessionsPerConnection(Integer sessionsPerConnection) {
+        this.sessionsPerConnection = sessionsPerConnection;
+    }
+
+    /**
+     * Get the number of message producers each managed connection keeps open across handles.
+     *
+     * @return the number of cached message producers, 0 to close them with their handle.
+     */
+    public Integer getProducerCacheSize() {
+        return producerCacheSize;
+    }
+
+    /**
+     * Set the number of message producers each managed connection keeps open across handles.
+     * A closed producer is kept by destination and handed to the next handle creating a producer
+     * for the same destination, reset to the default delivery settings. The least recently used
+     * producers are closed when the cache is full.
+     *
+     * @param producerCacheSize the number of cached message producers, 0 to close them with their handle.
+     */
+    public void setProducerCacheSize(Integer producerCacheSize) {
+        this.producerCacheSize = producerCacheSize;
+    }
+
+    /**
+     * Index a managed connection created by this factory
+     *
+     * @param mc the managed connection
+     */
+    void addManagedConnection(final JmsManagedConnection mc) {
+        MatchKey key = new MatchKey(mc.getUserName(), (JmsConnectionRequestInfo) mc.getInfo());
+        getManagedConnections().compute(key, new BiFunction<MatchKey, Set<JmsManagedConnection>, Set<JmsManagedConnection>>() {
+            @Override
+            public Set<JmsManagedConnection> apply(MatchKey key, Set<JmsManagedConnection> set) {
+                if (set == null) {
+                    set = Collections.newSetFromMap(new ConcurrentHashMap<JmsManagedConnection, Boolean>());
+                }
+                set.add(mc);
+                return set;
+            }
+        });
+    }
+
+    /**
+     * Stop indexing a destroyed managed connection
+     *
+     * @param mc the managed connection
+     */
+    void removeManagedConnection(final JmsManagedConnection mc) {
+        MatchKey key = new MatchKey(mc.getUserName(), (JmsConnectionRequestInfo) mc.getInfo());
+        getManagedConnections().computeIfPresent(key, new BiFunction<MatchKey, Set<JmsManagedConnection>, Set<JmsManagedConnection>>() {
+            @Override
+            public Set<JmsManagedConnection> apply(MatchKey key, Set<JmsManagedConnection> set) {
+                set.remove(mc);
+                return set.isEmpty() ? null : set;
+            }
+        });
+    }
+
+    /**
+     * Get the index of the managed connections, created on first use
+     *
+     * @return the managed connections by user name and request info
+     */
+    private ConcurrentHashMap<MatchKey, Set<JmsManagedConnection>> getManagedConnections() {
+        ConcurrentHashMap<MatchKey, Set<JmsManagedConnection>> result = managedConnections;
+        if (result == null) {
+            synchronized (this) {
+                result = managedConnections;
+                if (result == null) {
+                    result = new ConcurrentHashMap<>();
+                    managedConnections = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the credentials resolved from subjects, created on first use
+     *
+     * @return the credential cache
+     */
+    JmsCred.Cache getCredentialCache() {
+        JmsCred.Cache result = credentialCache;
+        if (result == null) {
+            synchronized (this) {
+                result = credentialCache;
+                if (result == null) {
+                    result = new JmsCred.Cache(256);
+                    credentialCache = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find a candidate among the managed connections of this factory with the given key,
+     * walking whichever of the candidates and the indexed connections is smaller
+     *
+     * @param connectionSet the candidates
+     * @param key           the user name and request info
+     * @return the matching connection, or null
+     */
+    private JmsManagedConnection findManagedConnection(Set connectionSet, MatchKey key) {
+        Set<JmsManagedConnection> set = getManagedConnections().get(key);
+        if (set == null) {
+            return null;
+        }
+        if (set.size() <= connectionSet.size()) {
+            for (JmsManagedConnection mc : set) {
+                if (connectionSet.contains(mc)) {
+                    return mc;
+                }
+            }
+        } else {
+            for (Object obj : connectionSet) {
+                if (set.contains(obj)) {
+                    return (JmsManagedConnection) obj;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of queues and topics cached by name.
+     *
+     * @return the number of cached destinations, 0 to always ask the provider.
+     */
+    public Integer getDestinationCacheSize() {
+        return destinationCacheSize;
+    }
+
+    /**
+     * Set the number of queues and topics cached by name by createQueue and createTopic.
+     * The least recently used destinations are evicted when the cache is full.
+     *
+     * @param destinationCacheSize the number of cached destinations, 0 to always ask the provider.
+     */
+    public void setDestinationCacheSize(Integer destinationCacheSize) {
+        this.destinationCacheSize = destinationCacheSize;
+    }
+
+    /**
+     * Get whether the destination cache is shared by all the managed connections.
+     *
+     * @return whether the destination cache is shared by all the managed connections.
+     */
+    public Boolean isShareDestinationCache() {
+        return shareDestinationCache;
+    }
+
+    /**
+     * Set whether the destination cache is shared by all the managed connections rather than kept
+     * by each. Only for providers whose destinations do not depend on the connection they were created with.
+     *
+     * @param shareDestinationCache whether the destination cache is shared by all the managed connections.
+     */
+    public void setShareDestinationCache(Boolean shareDestinationCache) {
+        this.shareDestinationCache = shareDestinationCache;
+    }
+
+    /**
+     * @return the number of destinations found in the destination caches.
+     */
+    public long getDestinationCacheHitCount() {
+        return destinationCacheHits.get();
+    }
+
+    /**
+     * @return the number of destinations not found in the destination caches.
+     */
+    public long getDestinationCacheMissCount() {
+        return destinationCacheMisses.get();
+    }
+
+    @Override
+    public ResourceAdapter getResourceAdapter() {
+        return ra;
+    }
+
+    @Override
+    public void setResourceAdapter(ResourceAdapter ra) {
+        this.ra = ra;
+    }
+
+    /**
+     * Get the JNDI cache, the one of the resource adapter when associated
+     *
+     * @return the JNDI cache
+     */
+    synchronized JndiCache getJndiCache() {
+        if (ra instanceof JmsResourceAdapter) {
+            return ((JmsResourceAdapter) ra).getJndiCache();
+        }
+        if (jndiCache == null) {
+            jndiCache = new JndiCache();
+        }
+        return jndiCache;
+    }
+
+    /**
+     * Get the destination cache of a new managed connection
+     *
+     * @return the shared cache, a new cache, or null when destinations are not cached
+     */
+    DestinationCache getDestinationCache() {
+        if (destinationCacheSize == null || destinationCacheSize <= 0) {
+            return null;
+        }
+        if (!Boolean.TRUE.equals(shareDestinationCache)) {
+            return new DestinationCache(destinationCacheSize, destinationCacheHits, destinationCacheMisses);
+        }
+        synchronized (this) {
+            if (sharedDestinationCache == null) {
+                sharedDestinationCache = new DestinationCache(destinationCacheSize, destinationCacheHits, destinationCacheMisses);
+            }
+            return sharedDestinationCache;
+        }
+    }
+
+    /**
+     * @return whether managed connections share physical connections
+     */
+    boolean isSharingConnections() {
+        return sessionsPerConnection != null && sessionsPerConnection > 1
+                && mcfProperties.getType() != JmsConnectionFactory.JMS_CONTEXT;
+    }
+
+    /**
+     * Get the registry of the physical connections, created on first use
+     *
+     * @return the physical connections by credentials and client id
+     */
+    private synchronized Map<String, List<JmsPhysicalConnection>> getPhysicalConnections() {
+        if (physicalConnections == null) {
+            physicalConnections = new HashMap<>();
+        }
+        return physicalConnections;
+    }
+
+    /**
+     * Get a reference to a physical connection with room for another managed connection
+     *
+     * @param key the registry key
+     * @return the physical connection
+     */
+    JmsPhysicalConnection acquirePhysicalConnection(String key) {
+        Map<String, List<JmsPhysicalConnection>> registry = getPhysicalConnections();
+        synchronized (registry) {
+            List<JmsPhysicalConnection> connections = registry.get(key);
+            if (connections == null) {
+                connections = new ArrayList<>();
+                registry.put(key, connections);
+            }
+            for (JmsPhysicalConnection connection : connections) {
+                if (!connection.isFailed() && connection.getReferences() < sessionsPerConnection) {
+                    connection.incrementReferences();
+                    return connection;
+                }
+            }
+            JmsPhysicalConnection connection = new JmsPhysicalConnection(key);
+            connection.incrementReferences();
+            connections.add(connection);
+            return connection;
+        }
+    }
+
+    /**
+     * Release a reference to a physical connection, closing it when it was the last one
+     *
+     * @param connection the physical connection
+     */
+    void releasePhysicalConnection(JmsPhysicalConnection connection) {
+        Map<String, List<JmsPhysicalConnection>> registry = getPhysicalConnections();
+        synchronized (registry) {
+            if (connection.decrementReferences() > 0) {
+                return;
+            }
+            List<JmsPhysicalConnection> connections = registry.get(connection.getKey());
+            if (connections != null) {
+                connections.remove(connection);
+                if (connections.isEmpty()) {
+                    registry.remove(connection.getKey());
+                }
+            }
+        }
+        connection.close();
+    }
+
     private ConnectionRequestInfo getInfo(ConnectionRequestInfo info) {
         if (info == null) {
             // Create a default one
@@ -362,4 +763,35 @@ public class JmsManagedConnectionFactory implements ManagedConnectionFactory {
         return mcfProperties;
     }
 
+    /**
+     * The user name and request info managed connections are matched with
+     */
+    private static final class MatchKey {
+        private final String userName;
+
+        private final JmsConnectionRequestInfo info;
+
+        MatchKey(String userName, JmsConnectionRequestInfo info) {
+            this.userName = userName;
+            this.info = info;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof MatchKey)) {
+                return false;
+            }
+            MatchKey you = (MatchKey) obj;
+            return Strings.compare(userName, you.userName) && info.equals(you.info);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (userName != null ? userName.hashCode() : 0) + info.hashCode();
+        }
+    }
+
 }
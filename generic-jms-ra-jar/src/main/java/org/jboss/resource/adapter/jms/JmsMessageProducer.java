@@ -47,6 +47,16 @@ public class JmsMessageProducer implements MessageProducer {
      */
     JmsSession session;
 
+    /**
+     * The destination the producer was created for, the key of the producer cache
+     */
+    Destination destination;
+
+    /**
+     * Whether the wrapped producer goes back to the producer cache of the managed connection when closed
+     */
+    boolean cacheable;
+
     /**
      * Whether trace is enabled
      */
@@ -233,6 +243,12 @@ public class JmsMessageProducer implements MessageProducer {
     }
 
     void closeProducer() throws JMSException {
+        if (cacheable) {
+            cacheable = false;
+            if (session.returnProducer(destination, producer)) {
+                return;
+            }
+        }
         producer.close();
     }
 }
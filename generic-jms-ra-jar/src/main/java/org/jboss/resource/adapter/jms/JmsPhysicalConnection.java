@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.util.Strings;
+
+/**
+ * A physical connection multiplexed between managed connections of the same
+ * managed connection factory, credentials and client id. Each managed
+ * connection only creates its own session on it.
+ * <p>
+ * The connection is opened by the first managed connection and closed when the
+ * last one releases it. It is started when the first managed connection starts
+ * it and only stopped once all the managed connections that started it stopped
+ * it, since stopping it stops the consumers of all of them. When it fails, it is
+ * no longer handed out and only the managed connections using it are notified.
+ */
+public class JmsPhysicalConnection implements ExceptionListener {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsPhysicalConnection.class);
+
+    /**
+     * The registry key
+     */
+    private final String key;
+
+    /**
+     * The managed connections notified of a failure
+     */
+    private final CopyOnWriteArraySet<ExceptionListener> listeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * The managed connections that started the connection
+     */
+    private final Set<JmsManagedConnection> started = new HashSet<>();
+
+    /**
+     * The number of managed connections holding the connection, guarded by the registry
+     */
+    private int references;
+
+    /**
+     * Whether the connection failed
+     */
+    private volatile boolean failed;
+
+    /**
+     * The connection
+     */
+    private Connection connection;
+
+    /**
+     * Create a new physical connection
+     *
+     * @param key the registry key
+     */
+    public JmsPhysicalConnection(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param user     the user name
+     * @param password the password, only a digest of it is kept in the key
+     * @param clientID the client id
+     * @return the registry key of the connections managed connections with these credentials can share
+     */
+    public static String getKey(String user, String password, String clientID) {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(user).append('\u0000');
+        buffer.append(Strings.digest(Strings.toCharArray(password))).append('\u0000');
+        buffer.append(clientID);
+        return buffer.toString();
+    }
+
+    /**
+     * @return the registry key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the connection, opening it on first use
+     *
+     * @param mc         the managed connection
+     * @param factory    the connection factory
+     * @param user       the user name
+     * @param password   the password
+     * @param transacted whether the session is transacted
+     * @param ack        the acknowledge mode
+     * @return the connection
+     * @throws JMSException for any error
+     */
+    public synchronized Connection getConnection(JmsManagedConnection mc, Object factory, String user, String password,
+                                                 boolean transacted, int ack) throws JMSException {
+        if (failed) {
+            throw new JMSException("The physical connection failed " + this);
+        }
+        if (connection == null) {
+            Connection created = mc.createConnection(factory, user, password, transacted, ack);
+            try {
+                created.setExceptionListener(this);
+            } catch (JMSException | RuntimeException e) {
+                try {
+                    created.close();
+                } catch (Throwable ignored) {
+                }
+                throw e;
+            }
+            connection = created;
+            log.debug("Opened physical connection " + connection);
+        }
+        listeners.add(mc);
+        return connection;
+    }
+
+    /**
+     * Add a reference, called by the registry
+     *
+     * @return the number of references
+     */
+    int incrementReferences() {
+        return ++references;
+    }
+
+    /**
+     * Remove a reference, called by the registry
+     *
+     * @return the number of references left
+     */
+    int decrementReferences() {
+        return --references;
+    }
+
+    /**
+     * @return the number of references, called by the registry
+     */
+    int getReferences() {
+        return references;
+    }
+
+    /**
+     * Start the connection for a managed connection
+     *
+     * @param mc the managed connection
+     * @throws JMSException for any error
+     */
+    synchronized void start(JmsManagedConnection mc) throws JMSException {
+        if (connection != null && started.add(mc) && started.size() == 1) {
+            connection.start();
+        }
+    }
+
+    /**
+     * Stop the connection for a managed connection, once no other managed connection has it started
+     *
+     * @param mc the managed connection
+     * @throws JMSException for any error
+     */
+    synchronized void stop(JmsManagedConnection mc) throws JMSException {
+        if (connection != null && started.remove(mc) && started.isEmpty()) {
+            connection.stop();
+        }
+    }
+
+    /**
+     * Stop notifying a managed connection of failures
+     *
+     * @param mc the managed connection
+     */
+    void removeListener(JmsManagedConnection mc) {
+        listeners.remove(mc);
+        try {
+            stop(mc);
+        } catch (Throwable t) {
+            log.trace("Ignored error stopping the physical connection " + this, t);
+        }
+    }
+
+    /**
+     * Close the connection, once the last managed connection released it
+     */
+    synchronized void close() {
+        try {
+            if (connection != null) {
+                log.debug("Closing physical connection " + connection);
+                connection.setExceptionListener(null);
+                connection.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing the physical connection " + connection, t);
+        }
+        connection = null;
+        started.clear();
+    }
+
+    /**
+     * @return whether the connection failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public void onException(JMSException exception) {
+        failed = true;
+        log.debug("Physical connection failed, notifying " + listeners.size() + " managed connections " + this, exception);
+        for (ExceptionListener listener : listeners) {
+            try {
+                listener.onException(exception);
+            } catch (Throwable t) {
+                log.debug("Error notifying " + listener, t);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JmsPhysicalConnection(" + connection + " references=" + references + " failed=" + failed + ")";
+    }
+}
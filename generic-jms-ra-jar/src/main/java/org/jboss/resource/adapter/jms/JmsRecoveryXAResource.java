@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import javax.jms.XAConnection;
+import javax.jms.XAConnectionFactory;
+import javax.jms.XASession;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.inflow.JmsActivation;
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.util.JndiCache;
+import org.jboss.resource.adapter.jms.util.SecurityActions;
+import org.jboss.resource.adapter.jms.util.Strings;
+
+/**
+ * The XAResource handed to the transaction manager to recover the inflow
+ * transactions of the activations using a connection factory and user.
+ * <p>
+ * The connection is opened on first use and closed when the provider reports
+ * it failed, or once it has been idle for a while. It stays open after a
+ * recovery scan for the commits and rollbacks that follow it. Activations
+ * using the same connection factory, JNDI parameters, user and password share
+ * one resource.
+ */
+public class JmsRecoveryXAResource implements XAResource {
+
+    private static final Logger log = Logger.getLogger(JmsRecoveryXAResource.class);
+
+    /**
+     * The connection factory name
+     */
+    private final String connectionFactory;
+
+    /**
+     * The JNDI parameters
+     */
+    private final String jndiParameters;
+
+    /**
+     * The user
+     */
+    private final String user;
+
+    /**
+     * The password
+     */
+    private final char[] password;
+
+    /**
+     * The JNDI cache of the resource adapter
+     */
+    private final JndiCache jndiCache;
+
+    /**
+     * The connection, while open
+     */
+    private XAConnection connection;
+
+    /**
+     * The resource of the connection, while open
+     */
+    private XAResource xaResource;
+
+    /**
+     * Whether the connection factory does not support XA
+     */
+    private boolean notXA;
+
+    /**
+     * When the resource was last used
+     */
+    private long lastUsed;
+
+    /**
+     * Create a new recovery resource
+     *
+     * @param spec      the activation spec
+     * @param jndiCache the JNDI cache of the resource adapter
+     */
+    public JmsRecoveryXAResource(JmsActivationSpec spec, JndiCache jndiCache) {
+        this.connectionFactory = spec.getConnectionFactory();
+        this.jndiParameters = spec.getJndiParameters();
+        this.user = spec.getUser();
+        this.password = spec.getPasswordChars();
+        this.jndiCache = jndiCache;
+    }
+
+    /**
+     * @param spec the activation spec
+     * @return the key of the activation specs sharing a recovery resource, holding a digest of the password
+     */
+    public static String getKey(JmsActivationSpec spec) {
+        return spec.getConnectionFactory() + '\u0000' + spec.getJndiParameters() + '\u0000' + spec.getUser()
+                + '\u0000' + Strings.digest(spec.getPasswordChars());
+    }
+
+    @Override
+    public synchronized void start(Xid xid, int flags) throws XAException {
+        try {
+            getXAResource().start(xid, flags);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void end(Xid xid, int flags) throws XAException {
+        try {
+            getXAResource().end(xid, flags);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized int prepare(Xid xid) throws XAException {
+        try {
+            return getXAResource().prepare(xid);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void commit(Xid xid, boolean onePhase) throws XAException {
+        try {
+            getXAResource().commit(xid, onePhase);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void rollback(Xid xid) throws XAException {
+        try {
+            getXAResource().rollback(xid);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void forget(Xid xid) throws XAException {
+        try {
+            getXAResource().forget(xid);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isSameRM(XAResource xaRes) throws XAException {
+        XAResource currentRes = xaRes;
+        if (currentRes instanceof JmsRecoveryXAResource) {
+            if (currentRes == this) {
+                return true;
+            }
+            currentRes = ((JmsRecoveryXAResource) currentRes).getUnderlyingXAResource();
+        } else if (currentRes instanceof JmsXAResource) {
+            currentRes = ((JmsXAResource) currentRes).getUnderlyingXAResource();
+        }
+        return currentRes != null && getXAResource().isSameRM(currentRes);
+    }
+
+    @Override
+    public synchronized Xid[] recover(int flag) throws XAException {
+        try {
+            XAResource resource = getXAResource(true);
+            return resource == null ? new Xid[0] : resource.recover(flag);
+        } catch (XAException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized int getTransactionTimeout() throws XAException {
+        return getXAResource().getTransactionTimeout();
+    }
+
+    @Override
+    public synchronized boolean setTransactionTimeout(int seconds) throws XAException {
+        return getXAResource().setTransactionTimeout(seconds);
+    }
+
+    /**
+     * @return the resource of the connection, while open
+     */
+    public synchronized XAResource getUnderlyingXAResource() {
+        return xaResource;
+    }
+
+    /**
+     * Close the connection when it has not been used for the given time
+     *
+     * @param idleTimeout the idle timeout in milliseconds
+     */
+    public synchronized void closeIfIdle(long idleTimeout) {
+        if (connection != null && System.currentTimeMillis() - lastUsed >= idleTimeout) {
+            log.debug("Closing idle recovery connection " + this);
+            close();
+        }
+    }
+
+    /**
+     * Close the connection
+     */
+    public synchronized void close() {
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing recovery connection " + connection, t);
+        }
+        connection = null;
+        xaResource = null;
+    }
+
+    private XAResource getXAResource() throws XAException {
+        XAResource resource = getXAResource(false);
+        if (resource == null) {
+            XAException e = new XAException("The connection factory " + connectionFactory + " does not support XA");
+            e.errorCode = XAException.XAER_RMERR;
+            throw e;
+        }
+        return resource;
+    }
+
+    /**
+     * Get the resource of the connection, opening it when needed
+     *
+     * @param recovering whether a missing XA support is ignored
+     * @return the resource, or null when the connection factory does not support XA
+     * @throws XAException when the connection cannot be opened
+     */
+    private XAResource getXAResource(boolean recovering) throws XAException {
+        lastUsed = System.currentTimeMillis();
+        if (xaResource != null || notXA) {
+            return xaResource;
+        }
+
+        ClassLoader oldTCCL = SecurityActions.getThreadContextClassLoader();
+        try {
+            SecurityActions.setThreadContextClassLoader(JmsActivation.class.getClassLoader());
+            Object factory = jndiCache.lookup(jndiParameters, connectionFactory);
+            if (!(factory instanceof XAConnectionFactory)) {
+                log.debug("Nothing to recover, " + connectionFactory + " is not an XAConnectionFactory");
+                notXA = true;
+                return null;
+            }
+            XAConnectionFactory xacf = (XAConnectionFactory) factory;
+            connection = user != null ? xacf.createXAConnection(user, Strings.fromCharArray(password)) : xacf.createXAConnection();
+            XASession session = connection.createXASession();
+            xaResource = session.getXAResource();
+            log.debug("Opened recovery connection " + connection);
+            return xaResource;
+        } catch (Throwable t) {
+            close();
+            jndiCache.invalidate(jndiParameters, connectionFactory);
+            XAException e = new XAException("Unable to open a recovery connection with " + connectionFactory);
+            e.errorCode = XAException.XAER_RMFAIL;
+            e.initCause(t);
+            throw e;
+        } finally {
+            SecurityActions.setThreadContextClassLoader(oldTCCL);
+        }
+    }
+
+    /**
+     * Close the connection when the provider reports it failed
+     *
+     * @param e the exception
+     * @return the exception
+     */
+    private XAException failed(XAException e) {
+        if (e.errorCode == XAException.XAER_RMFAIL) {
+            close();
+        }
+        return e;
+    }
+
+    @Override
+    public String toString() {
+        return "JmsRecoveryXAResource(connectionFactory=" + connectionFactory + " user=" + user + " connection=" + connection + ")";
+    }
+}
@@ -24,17 +24,25 @@ package org.jboss.resource.adapter.jms;
 import org.jboss.logging.Logger;
 import org.jboss.resource.adapter.jms.inflow.JmsActivation;
 import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.inflow.JmsSharedConnection;
+import org.jboss.resource.adapter.jms.util.JndiCache;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ActivationSpec;
 import javax.resource.spi.BootstrapContext;
 import javax.resource.spi.ResourceAdapter;
 import javax.resource.spi.ResourceAdapterInternalException;
+import javax.resource.spi.UnavailableException;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
 import javax.resource.spi.work.WorkManager;
 import javax.transaction.xa.XAResource;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -48,6 +56,11 @@ public class JmsResourceAdapter implements ResourceAdapter {
      */
     private static final Logger log = Logger.getLogger(JmsResourceAdapter.class);
 
+    /**
+     * The time in milliseconds after which an idle recovery connection is closed
+     */
+    private static final long RECOVERY_IDLE_TIMEOUT = 60000;
+
     /**
      * The bootstrap context
      */
@@ -58,6 +71,31 @@ public class JmsResourceAdapter implements ResourceAdapter {
      */
     private ConcurrentHashMap<ActivationSpec, JmsActivation> activations = new ConcurrentHashMap<>();
 
+    /**
+     * The timer shared by the activations
+     */
+    private Timer timer;
+
+    /**
+     * The inflow connections shared by the activations, by connection factory, JNDI parameters and user
+     */
+    private final Map<String, JmsSharedConnection> sharedConnections = new HashMap<>();
+
+    /**
+     * The connection factories and destinations looked up in JNDI
+     */
+    private final JndiCache jndiCache = new JndiCache();
+
+    /**
+     * The recovery resources, by connection factory, JNDI parameters, user and password digest
+     */
+    private final Map<String, JmsRecoveryXAResource> recoveryResources = new HashMap<>();
+
+    /**
+     * The task closing idle recovery connections
+     */
+    private TimerTask recoveryReaper;
+
     /**
      * Get the work manager
      *
@@ -67,6 +105,83 @@ public class JmsResourceAdapter implements ResourceAdapter {
         return ctx.getWorkManager();
     }
 
+    /**
+     * @return how long in milliseconds the connection factories and destinations looked up in JNDI are cached
+     */
+    public Long getJndiCacheTimeout() {
+        return jndiCache.getTimeout();
+    }
+
+    /**
+     * @param jndiCacheTimeout how long in milliseconds the connection factories and destinations looked up in JNDI are cached, 0 to disable the cache
+     */
+    public void setJndiCacheTimeout(Long jndiCacheTimeout) {
+        if (jndiCacheTimeout != null) {
+            jndiCache.setTimeout(jndiCacheTimeout);
+        }
+    }
+
+    /**
+     * @return the connection factories and destinations looked up in JNDI
+     */
+    public JndiCache getJndiCache() {
+        return jndiCache;
+    }
+
+    /**
+     * Get the timer shared by the activations. Timer tasks must be short, anything
+     * that may block on the messaging provider is handed to the work manager.
+     *
+     * @return the timer
+     */
+    public synchronized Timer getTimer() {
+        if (timer == null) {
+            try {
+                timer = ctx.createTimer();
+            } catch (UnavailableException e) {
+                log.debug("Unable to create a timer from the bootstrap context, using a private one", e);
+                timer = new Timer("generic-jms-ra-timer", true);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Get a reference to the shared connection with the given key, a new one
+     * replaces a connection that failed
+     *
+     * @param key the key
+     * @return the shared connection
+     */
+    public JmsSharedConnection acquireSharedConnection(String key) {
+        synchronized (sharedConnections) {
+            JmsSharedConnection shared = sharedConnections.get(key);
+            if (shared == null || shared.isFailed()) {
+                shared = new JmsSharedConnection(key);
+                sharedConnections.put(key, shared);
+            }
+            shared.incrementReferences();
+            return shared;
+        }
+    }
+
+    /**
+     * Release a reference to a shared connection, it is closed with the last reference
+     *
+     * @param shared the shared connection
+     */
+    public void releaseSharedConnection(JmsSharedConnection shared) {
+        synchronized (sharedConnections) {
+            if (shared.decrementReferences() > 0) {
+                return;
+            }
+            if (sharedConnections.get(shared.getKey()) == shared) {
+                sharedConnections.remove(shared.getKey());
+            }
+        }
+        shared.close();
+    }
+
     @Override
     public void endpointActivation(MessageEndpointFactory endpointFactory, ActivationSpec spec) throws ResourceException {
         JmsActivation activation = new JmsActivation(this, endpointFactory, (JmsActivationSpec) spec);
@@ -84,7 +199,53 @@ public class JmsResourceAdapter implements ResourceAdapter {
 
     @Override
     public XAResource[] getXAResources(ActivationSpec[] specs) throws ResourceException {
-        return null;
+        if (specs == null) {
+            return null;
+        }
+        LinkedHashMap<String, XAResource> resources = new LinkedHashMap<>();
+        synchronized (recoveryResources) {
+            for (ActivationSpec spec : specs) {
+                if (!(spec instanceof JmsActivationSpec) || ((JmsActivationSpec) spec).getConnectionFactory() == null) {
+                    continue;
+                }
+                JmsActivation activation = activations.get(spec);
+                if (activation != null && !activation.isDeliveryTransacted()) {
+                    // Nothing to recover
+                    continue;
+                }
+                JmsActivationSpec jmsSpec = (JmsActivationSpec) spec;
+                String key = JmsRecoveryXAResource.getKey(jmsSpec);
+                JmsRecoveryXAResource resource = recoveryResources.get(key);
+                if (resource == null) {
+                    resource = new JmsRecoveryXAResource(jmsSpec, jndiCache);
+                    recoveryResources.put(key, resource);
+                }
+                resources.put(key, resource);
+            }
+            if (recoveryReaper == null && !recoveryResources.isEmpty()) {
+                recoveryReaper = new TimerTask() {
+                    @Override
+                    public void run() {
+                        closeIdleRecoveryConnections();
+                    }
+                };
+                getTimer().schedule(recoveryReaper, RECOVERY_IDLE_TIMEOUT, RECOVERY_IDLE_TIMEOUT);
+            }
+        }
+        return resources.values().toArray(new XAResource[resources.size()]);
+    }
+
+    /**
+     * Close the recovery connections that have been idle for too long
+     */
+    private void closeIdleRecoveryConnections() {
+        ArrayList<JmsRecoveryXAResource> resources;
+        synchronized (recoveryResources) {
+            resources = new ArrayList<>(recoveryResources.values());
+        }
+        for (JmsRecoveryXAResource resource : resources) {
+            resource.closeIfIdle(RECOVERY_IDLE_TIMEOUT);
+        }
     }
 
     @Override
@@ -106,6 +267,37 @@ public class JmsResourceAdapter implements ResourceAdapter {
             }
             i.remove();
         }
+
+        ArrayList<JmsRecoveryXAResource> resources;
+        synchronized (recoveryResources) {
+            if (recoveryReaper != null) {
+                recoveryReaper.cancel();
+                recoveryReaper = null;
+            }
+            resources = new ArrayList<>(recoveryResources.values());
+            recoveryResources.clear();
+        }
+        for (JmsRecoveryXAResource resource : resources) {
+            resource.close();
+        }
+
+        ArrayList<JmsSharedConnection> leftovers;
+        synchronized (sharedConnections) {
+            leftovers = new ArrayList<>(sharedConnections.values());
+            sharedConnections.clear();
+        }
+        for (JmsSharedConnection shared : leftovers) {
+            shared.close();
+        }
+
+        synchronized (this) {
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+        }
+
+        jndiCache.clear();
     }
 
     @Override
@@ -55,6 +55,7 @@ import javax.jms.TopicSubscriber;
 import javax.resource.spi.ConnectionEvent;
 
 import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.util.DestinationCache;
 
 /**
  * Adapts the JMS QueueSession and TopicSession API to a JmsManagedConnection.
@@ -360,7 +361,14 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         if (trace) {
             log.trace("createTopic " + session + " topicName=" + topicName);
         }
-        Topic result = session.createTopic(topicName);
+        DestinationCache cache = getDestinationCache();
+        Topic result = cache != null ? cache.getTopic(topicName) : null;
+        if (result == null) {
+            result = session.createTopic(topicName);
+            if (cache != null) {
+                cache.putTopic(topicName, result);
+            }
+        }
         if (trace) {
             log.trace("createdTopic " + session + " topic=" + result);
         }
@@ -458,10 +466,14 @@ public class JmsSession implements Session, QueueSession, TopicSession {
             if (trace) {
                 log.trace("createPublisher " + session + " topic=" + topic);
             }
-            TopicPublisher result = session.createPublisher(topic);
-            result = new JmsTopicPublisher(result, this);
+            TopicPublisher result = (TopicPublisher) takeProducer(topic, TopicPublisher.class);
+            boolean cached = result != null;
+            if (!cached) {
+                result = session.createPublisher(topic);
+            }
+            result = cacheable(new JmsTopicPublisher(result, this), topic);
             if (trace) {
-                log.trace("createdPublisher " + session + " publisher=" + result);
+                log.trace("createdPublisher " + session + " publisher=" + result + " cached=" + cached);
             }
             addProducer(result);
             return result;
@@ -553,7 +565,14 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         if (trace) {
             log.trace("createQueue " + session + " queueName=" + queueName);
         }
-        Queue result = session.createQueue(queueName);
+        DestinationCache cache = getDestinationCache();
+        Queue result = cache != null ? cache.getQueue(queueName) : null;
+        if (result == null) {
+            result = session.createQueue(queueName);
+            if (cache != null) {
+                cache.putQueue(queueName, result);
+            }
+        }
         if (trace) {
             log.trace("createdQueue " + session + " queue=" + result);
         }
@@ -607,10 +626,14 @@ public class JmsSession implements Session, QueueSession, TopicSession {
             if (trace) {
                 log.trace("createSender " + session + " queue=" + queue);
             }
-            QueueSender result = session.createSender(queue);
-            result = new JmsQueueSender(result, this);
+            QueueSender result = (QueueSender) takeProducer(queue, QueueSender.class);
+            boolean cached = result != null;
+            if (!cached) {
+                result = session.createSender(queue);
+            }
+            result = cacheable(new JmsQueueSender(result, this), queue);
             if (trace) {
-                log.trace("createdSender " + session + " sender=" + result);
+                log.trace("createdSender " + session + " sender=" + result + " cached=" + cached);
             }
             addProducer(result);
             return result;
@@ -710,10 +733,14 @@ public class JmsSession implements Session, QueueSession, TopicSession {
             if (trace) {
                 log.trace("createProducer " + session + " dest=" + destination);
             }
-            MessageProducer result = getSession().createProducer(destination);
-            result = new JmsMessageProducer(result, this);
+            MessageProducer result = takeProducer(destination, MessageProducer.class);
+            boolean cached = result != null;
+            if (!cached) {
+                result = session.createProducer(destination);
+            }
+            result = cacheable(new JmsMessageProducer(result, this), destination);
             if (trace) {
-                log.trace("createdProducer " + session + " producer=" + result);
+                log.trace("createdProducer " + session + " producer=" + result + " cached=" + cached);
             }
             addProducer(result);
             return result;
@@ -965,6 +992,45 @@ public class JmsSession implements Session, QueueSession, TopicSession {
         }
     }
 
+    /**
+     * @return the queues and topics created by name, or null when they are not cached
+     */
+    DestinationCache getDestinationCache() {
+        JmsManagedConnection mc = this.mc;
+        return mc != null ? mc.getDestinationCache() : null;
+    }
+
+    /**
+     * Take a producer left open by a previous handle of the managed connection
+     *
+     * @param destination the destination
+     * @param type        the type of producer
+     * @return the producer, or null when none is cached
+     */
+    MessageProducer takeProducer(Destination destination, Class<? extends MessageProducer> type) {
+        JmsManagedConnection mc = this.mc;
+        return mc != null ? mc.takeProducer(destination, type) : null;
+    }
+
+    /**
+     * Give a closed producer back to the managed connection
+     *
+     * @param destination the destination
+     * @param producer    the producer
+     * @return whether the producer was cached, otherwise it has to be closed
+     */
+    boolean returnProducer(Destination destination, MessageProducer producer) {
+        JmsManagedConnection mc = this.mc;
+        return mc != null && mc.returnProducer(destination, producer);
+    }
+
+    private <T extends JmsMessageProducer> T cacheable(T producer, Destination destination) {
+        Integer size = mc.getManagedConnectionFactory().getProducerCacheSize();
+        producer.destination = destination;
+        producer.cacheable = size != null && size > 0;
+        return producer;
+    }
+
     QueueSession getQueueSession() throws JMSException {
         Session s = getSession();
         if (!(s instanceof QueueSession)) {
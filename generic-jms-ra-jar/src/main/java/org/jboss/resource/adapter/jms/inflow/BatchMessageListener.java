@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.List;
+
+import javax.jms.Message;
+
+/**
+ * A message listener receiving several messages per invocation.
+ * <p>
+ * Messages are grouped up to deliveryBatchSize messages, or for at most
+ * deliveryBatchTimeout milliseconds. All the messages of a batch are consumed
+ * in one transaction, or acknowledged together after the listener returned
+ * when delivery is not transacted. When the listener throws, the whole batch
+ * is delivered again: the transaction is rolled back, or the session is
+ * recovered when polling. With a connection consumer and non-transacted
+ * delivery, the session is closed instead, so the messages handed to it after
+ * the failed batch are not delivered and are also delivered again.
+ */
+public interface BatchMessageListener {
+
+    /**
+     * Passes a batch of messages to the listener
+     *
+     * @param messages the messages, in the order they were received
+     */
+    void onMessages(List<Message> messages);
+}
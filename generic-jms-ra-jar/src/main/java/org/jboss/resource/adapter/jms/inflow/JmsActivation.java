@@ -23,6 +23,7 @@ package org.jboss.resource.adapter.jms.inflow;
 
 import org.jboss.logging.Logger;
 import org.jboss.resource.adapter.jms.JmsResourceAdapter;
+import org.jboss.resource.adapter.jms.util.FingerprintCache;
 import org.jboss.resource.adapter.jms.util.SecurityActions;
 
 import javax.jms.Connection;
@@ -35,16 +36,34 @@ import javax.jms.MessageListener;
 import javax.jms.Queue;
 import javax.jms.Topic;
 import javax.jms.XAConnectionFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
 import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkManager;
 import javax.transaction.TransactionManager;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.jboss.resource.adapter.jms.util.Strings;
 
@@ -64,11 +83,21 @@ public class JmsActivation implements ExceptionListener {
     // this should work in AS7, not sure about any other container
     private static final String JNDI_NAME = "java:jboss/TransactionManager";
 
+    /**
+     * The random spread applied to reconnect delays so activations do not reconnect in lockstep
+     */
+    private static final double RECONNECT_JITTER = 0.2;
+
     /**
      * The onMessage method
      */
     public static final Method ONMESSAGE;
 
+    /**
+     * The onMessages method of a batch message listener
+     */
+    public static final Method ONMESSAGES;
+
     /**
      * The resource adapter
      */
@@ -89,11 +118,26 @@ public class JmsActivation implements ExceptionListener {
      */
     protected AtomicBoolean deliveryActive = new AtomicBoolean(false);
 
+    /**
+     * Whether the session pool is fully started and delivering
+     */
+    protected AtomicBoolean ready = new AtomicBoolean(false);
+
     /**
      * Whether we are in the failure recovery loop
      */
     private AtomicBoolean inFailure = new AtomicBoolean(false);
 
+    /**
+     * The number of failed reconnect attempts in the current failure recovery
+     */
+    private volatile int reconnectCount;
+
+    /**
+     * The pending reconnect attempt
+     */
+    private volatile TimerTask reconnectTask;
+
     /**
      * The destination
      */
@@ -114,20 +158,66 @@ public class JmsActivation implements ExceptionListener {
      */
     protected JmsServerSessionPool pool;
 
+    /**
+     * The additional connections, each with its own session pool
+     */
+    protected final List<JmsActivationConnection> connections = new CopyOnWriteArrayList<>();
+
+    /**
+     * The shared connection when the connection is shared with other activations
+     */
+    protected JmsSharedConnection sharedConnection;
+
     /**
      * Is the delivery transacted
      */
     protected boolean isDeliveryTransacted;
 
+    /**
+     * Whether the endpoints are batch message listeners
+     */
+    protected boolean batchListener;
+
     /**
      * The TransactionManager
      */
     protected TransactionManager tm;
 
+    /**
+     * The delivery statistics
+     */
+    protected final JmsActivationStatistics statistics = new JmsActivationStatistics(this);
+
+    /**
+     * The name the statistics are registered with
+     */
+    private ObjectName statisticsName;
+
+    /**
+     * The executor delivering messages instead of the work manager, if any
+     */
+    protected ExecutorService deliveryExecutor;
+
+    /**
+     * The controller holding back delivery under pressure, if any
+     */
+    protected JmsBackpressureController backpressure;
+
+    /**
+     * The keys of the messages delivered, kept across reconnects, if duplicates are filtered out
+     */
+    protected FingerprintCache duplicateCache;
+
+    /**
+     * The tracker of the messages whose delivery keeps failing, if any
+     */
+    protected JmsPoisonMessageTracker poisonMessages;
+
 
     static {
         try {
             ONMESSAGE = MessageListener.class.getMethod("onMessage", new Class[]{Message.class});
+            ONMESSAGES = BatchMessageListener.class.getMethod("onMessages", new Class[]{List.class});
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -137,11 +227,38 @@ public class JmsActivation implements ExceptionListener {
         this.ra = ra;
         this.endpointFactory = endpointFactory;
         this.spec = spec;
+        this.batchListener = isBatchListener(endpointFactory);
         try {
-            this.isDeliveryTransacted = endpointFactory.isDeliveryTransacted(ONMESSAGE);
+            this.isDeliveryTransacted = endpointFactory.isDeliveryTransacted(batchListener ? ONMESSAGES : ONMESSAGE);
+        } catch (NoSuchMethodException e) {
+            // The endpoint class was not known, but the endpoint does not listen to single messages
+            try {
+                this.isDeliveryTransacted = endpointFactory.isDeliveryTransacted(ONMESSAGES);
+                this.batchListener = true;
+            } catch (Exception ignored) {
+                throw new ResourceException(e);
+            }
         } catch (Exception e) {
             throw new ResourceException(e);
         }
+        if (isDeliveryTransacted && spec.isOrderedDelivery()) {
+            // The ordered messages are received in a local transaction the endpoint transactions cannot include
+            throw new NotSupportedException("orderedDelivery cannot be used with a transacted endpoint " + spec);
+        }
+    }
+
+    /**
+     * @param endpointFactory the message endpoint factory
+     * @return whether the endpoints are batch message listeners
+     */
+    private static boolean isBatchListener(MessageEndpointFactory endpointFactory) {
+        try {
+            Class<?> endpointClass = endpointFactory.getEndpointClass();
+            return endpointClass != null && BatchMessageListener.class.isAssignableFrom(endpointClass);
+        } catch (Throwable t) {
+            // Before JCA 1.7
+            return false;
+        }
     }
 
     /**
@@ -165,6 +282,55 @@ public class JmsActivation implements ExceptionListener {
         return isDeliveryTransacted;
     }
 
+    /**
+     * @return whether the endpoints are batch message listeners
+     */
+    public boolean isBatchListener() {
+        return batchListener;
+    }
+
+    /**
+     * @return whether non-transacted sessions acknowledge their messages in batches
+     */
+    public boolean isAcknowledgeBatched() {
+        return !isDeliveryTransacted && !batchListener && spec.getAcknowledgeBatchSize() > 1;
+    }
+
+    /**
+     * @return the delivery statistics
+     */
+    public JmsActivationStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the executor delivering messages instead of the work manager, or null to use the work manager
+     */
+    public ExecutorService getDeliveryExecutor() {
+        return deliveryExecutor;
+    }
+
+    /**
+     * @return the controller holding back delivery under pressure, or null when there are no limits
+     */
+    public JmsBackpressureController getBackpressureController() {
+        return backpressure;
+    }
+
+    /**
+     * @return the keys of the messages delivered, or null when duplicates are delivered
+     */
+    public FingerprintCache getDuplicateCache() {
+        return duplicateCache;
+    }
+
+    /**
+     * @return the tracker of the messages whose delivery keeps failing, or null when it is disabled
+     */
+    public JmsPoisonMessageTracker getPoisonMessageTracker() {
+        return poisonMessages;
+    }
+
     /**
      * @return the work manager
      */
@@ -172,6 +338,13 @@ public class JmsActivation implements ExceptionListener {
         return ra.getWorkManager();
     }
 
+    /**
+     * @return the timer shared by the activations
+     */
+    public Timer getTimer() {
+        return ra.getTimer();
+    }
+
     public TransactionManager getTransactionManager() {
         if (tm == null) {
             ClassLoader oldTCCL = SecurityActions.getThreadContextClassLoader();
@@ -198,6 +371,46 @@ public class JmsActivation implements ExceptionListener {
         return connection;
     }
 
+    /**
+     * @return the session pools of all the connections that are currently set up
+     */
+    public List<JmsServerSessionPool> getSessionPools() {
+        List<JmsServerSessionPool> pools = new ArrayList<>(connections.size() + 1);
+        JmsServerSessionPool current = pool;
+        if (current != null) {
+            pools.add(current);
+        }
+        for (JmsActivationConnection additional : connections) {
+            current = additional.pool;
+            if (current != null) {
+                pools.add(current);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * Several connections may not share a topic subscription unless it is a
+     * shared subscription, a client id or the ordering of the messages, so those
+     * activations use a single connection. Each connection has at least one
+     * session, so there are no more connections than maxSession.
+     *
+     * @return the number of connections the sessions are spread over
+     */
+    protected int getConnectionCount() {
+        int count = Math.max(1, spec.getConnectionCount());
+        if (count > 1 && ((isTopic && !spec.isShareSubscriptions()) || spec.getClientId() != null || spec.isOrderedDelivery() || sharedConnection != null)) {
+            log.debug("Using a single connection for " + spec);
+            return 1;
+        }
+        int maxSession = Math.max(1, spec.getMaxSession());
+        if (count > maxSession) {
+            log.debug("Using " + maxSession + " connections, one per session, for " + spec);
+            return maxSession;
+        }
+        return count;
+    }
+
     /**
      * @return the destination
      */
@@ -212,12 +425,33 @@ public class JmsActivation implements ExceptionListener {
         return isTopic;
     }
 
+    /**
+     * @return whether the connection and all the initial sessions are set up and delivery has started
+     */
+    public boolean isReady() {
+        return ready.get();
+    }
+
     /**
      * Start the activation
      *
      * @throws ResourceException for any error
      */
     public void start() throws ResourceException {
+        registerStatistics();
+        if (spec.isUseVirtualThreads()) {
+            deliveryExecutor = createDeliveryExecutor();
+        }
+        if (spec.getDuplicateCacheSize() > 0) {
+            duplicateCache = new FingerprintCache(spec.getDuplicateCacheSize());
+        }
+        if (spec.getPoisonMessageThreshold() > 0) {
+            poisonMessages = new JmsPoisonMessageTracker(spec);
+        }
+        if (JmsBackpressureController.isEnabled(spec)) {
+            backpressure = new JmsBackpressureController(spec);
+            backpressure.start(getTimer());
+        }
         deliveryActive.set(true);
         ra.getWorkManager().scheduleWork(new SetupActivation());
     }
@@ -227,47 +461,158 @@ public class JmsActivation implements ExceptionListener {
      */
     public void stop() {
         deliveryActive.set(false);
+        TimerTask task = reconnectTask;
+        if (task != null) {
+            task.cancel();
+        }
+        if (backpressure != null) {
+            backpressure.stop();
+        }
         teardown();
+        unregisterStatistics();
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Create an executor running each delivery on a new virtual thread when the
+     * JVM supports them, otherwise on a dedicated pool of up to maxSession threads
+     *
+     * @return the executor
+     */
+    private ExecutorService createDeliveryExecutor() {
+        try {
+            // Java 21
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) method.invoke(null);
+            log.debug("Delivering messages on virtual threads for " + spec);
+            return executor;
+        } catch (NoSuchMethodException e) {
+            log.debug("Virtual threads are not available, delivering messages on a dedicated thread pool for " + spec);
+        } catch (Exception e) {
+            log.debug("Unable to create a virtual thread executor, delivering messages on a dedicated thread pool for " + spec, e);
+        }
+
+        final String prefix = "generic-jms-ra-delivery-" + spec.getDestination() + "-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, spec.getMaxSession());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, prefix + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Publish the delivery statistics in the platform MBean server
+     */
+    private void registerStatistics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.jboss.resource.adapter.jms:type=JmsActivation"
+                    + ",destination=" + ObjectName.quote(String.valueOf(spec.getDestination()))
+                    + ",id=" + Integer.toHexString(System.identityHashCode(this)));
+            server.registerMBean(statistics, name);
+            statisticsName = name;
+            log.debug("Registered the statistics of " + spec + " as " + name);
+        } catch (Exception e) {
+            log.debug("Unable to register the statistics of " + spec, e);
+        }
     }
 
     /**
-     * Handles any failure by trying to reconnect
+     * Remove the delivery statistics from the platform MBean server
+     */
+    private void unregisterStatistics() {
+        if (statisticsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsName);
+            } catch (Exception e) {
+                log.debug("Unable to unregister the statistics of " + spec, e);
+            }
+            statisticsName = null;
+        }
+    }
+
+    /**
+     * Handles any failure by trying to reconnect. The reconnect attempts are
+     * scheduled on the timer so no thread is held while waiting.
      *
      * @param failure the reason for the failure
      */
     public void handleFailure(Throwable failure) {
         log.warn("Failure in jms activation " + spec, failure);
-        int reconnectCount = 0;
 
-        // Only enter the failure loop once
+        // Only enter the failure recovery once
         if (inFailure.getAndSet(true)) {
             return;
         }
-        try {
-            while (deliveryActive.get() && (reconnectCount < spec.getReconnectAttempts() || spec.getReconnectAttempts() == -1)) {
-                teardown();
+        reconnectCount = 0;
+        teardown();
 
-                try {
-                    Thread.sleep(spec.getReconnectIntervalLong());
-                } catch (InterruptedException e) {
-                    log.debug("Interrupted trying to reconnect " + spec, e);
-                    break;
-                }
+        // The cached objects may be stale
+        ra.getJndiCache().invalidate(spec.getJndiParameters(), spec.getConnectionFactory());
+        ra.getJndiCache().invalidate(spec.getJndiParameters(), spec.getDestination());
 
-                log.info("Attempting to reconnect " + spec);
+        scheduleReconnect();
+    }
+
+    /**
+     * Schedule the next reconnect attempt, or leave the failure recovery when
+     * delivery was stopped or the reconnect attempts are exhausted
+     */
+    private void scheduleReconnect() {
+        if (!deliveryActive.get()) {
+            inFailure.set(false);
+            return;
+        }
+        if (spec.getReconnectAttempts() != -1 && reconnectCount >= spec.getReconnectAttempts()) {
+            log.error("Giving up reconnecting " + spec + " after " + reconnectCount + " attempts");
+            inFailure.set(false);
+            return;
+        }
+
+        long delay = getReconnectDelay(reconnectCount);
+        log.debug("Reconnecting " + spec + " in " + delay + " milliseconds");
+        TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
                 try {
-                    setupActivation();
-                    log.info("Reconnected with messaging provider");
-                    break;
-                } catch (Throwable t) {
-                    log.error("Unable to reconnect " + spec, t);
+                    getWorkManager().scheduleWork(new ReconnectActivation());
+                } catch (WorkException e) {
+                    log.error("Unable to schedule reconnecting " + spec, e);
+                    ++reconnectCount;
+                    scheduleReconnect();
                 }
-                ++reconnectCount;
             }
-        } finally {
-            // Leaving failure recovery loop
-            inFailure.set(false);
+        };
+        reconnectTask = task;
+        getTimer().schedule(task, delay);
+    }
+
+    /**
+     * The reconnect interval grows by the backoff multiplier after each failed
+     * attempt, with a random spread, and never exceeds the maximum reconnect interval.
+     *
+     * @param attempt the number of failed attempts
+     * @return the delay in milliseconds before the next attempt
+     */
+    long getReconnectDelay(int attempt) {
+        double delay = spec.getReconnectIntervalLong();
+        double max = spec.getMaxReconnectIntervalLong();
+        double multiplier = Math.max(1.0, spec.getReconnectBackoffMultiplier());
+        for (int i = 0; i < attempt && delay < max; ++i) {
+            delay *= multiplier;
         }
+        delay *= 1.0 - RECONNECT_JITTER + 2 * RECONNECT_JITTER * ThreadLocalRandom.current().nextDouble();
+        return Math.max(0, (long) Math.min(delay, max));
     }
 
     @Override
@@ -282,16 +627,26 @@ public class JmsActivation implements ExceptionListener {
         buffer.append("spec=").append(defaultToString(spec));
         buffer.append(" endpointFactory=").append(defaultToString(endpointFactory));
         buffer.append(" deliveryActive=").append(deliveryActive.get());
+        buffer.append(" ready=").append(ready.get());
         if (destination != null) {
             buffer.append(" destination=").append(destination);
         }
         if (connection != null) {
             buffer.append(" connection=").append(connection);
         }
+        if (sharedConnection != null) {
+            buffer.append(" shared=true");
+        }
         if (pool != null) {
             buffer.append(" pool=").append(defaultToString(pool));
         }
+        if (!connections.isEmpty()) {
+            buffer.append(" connections=").append(connections);
+        }
         buffer.append(" isDeliveryTransacted=").append(isDeliveryTransacted);
+        if (batchListener) {
+            buffer.append(" batchListener=true");
+        }
         buffer.append(')');
         return buffer.toString();
     }
@@ -309,15 +664,10 @@ public class JmsActivation implements ExceptionListener {
             SecurityActions.setThreadContextClassLoader(JmsActivation.class.getClassLoader());
 
             log.debug("Setting up " + spec);
-            Context ctx = convertStringToContext(spec.getJndiParameters());
-            log.debug("Using context " + ctx.getEnvironment() + " for " + spec);
-            try {
-                setupDestination(ctx);
-                setupConnection(ctx);
-            } finally {
-                ctx.close();
-            }
+            setupDestination();
+            setupConnection();
             setupSessionPool();
+            ready.set(true);
 
             log.debug("Setup complete " + this);
         } finally {
@@ -355,6 +705,7 @@ public class JmsActivation implements ExceptionListener {
      */
     protected void teardown() {
         log.debug("Tearing down " + spec);
+        ready.set(false);
 
         teardownSessionPool();
         teardownConnection();
@@ -366,10 +717,9 @@ public class JmsActivation implements ExceptionListener {
     /**
      * Setup the Destination
      *
-     * @param ctx the naming context
      * @throws Exception for any error
      */
-    protected void setupDestination(Context ctx) throws Exception {
+    protected void setupDestination() throws Exception {
         String destinationName = spec.getDestination();
 
         String destinationTypeString = spec.getDestinationType();
@@ -385,7 +735,7 @@ public class JmsActivation implements ExceptionListener {
         }
 
         log.debug("Retrieving destination " + destinationName + " of type " + destinationType.getName());
-        destination = (Destination) lookup(ctx, destinationName, destinationType);
+        destination = (Destination) lookup(destinationName, destinationType);
         if (destination instanceof Topic) {
             isTopic = true;
         }
@@ -403,36 +753,52 @@ public class JmsActivation implements ExceptionListener {
     /**
      * Setup the Connection
      *
-     * @param ctx the naming context
      * @throws Exception for any error
      */
-    private void setupConnection(Context ctx) throws Exception {
+    private void setupConnection() throws Exception {
         log.debug("setup connection " + this);
 
+        if (spec.isShareConnection() && spec.getClientId() == null) {
+            sharedConnection = ra.acquireSharedConnection(JmsSharedConnection.getKey(spec, isDeliveryTransacted));
+            connection = sharedConnection.getConnection(this);
+        } else {
+            connection = createConnection(this);
+        }
+
+        log.debug("established connection " + this);
+    }
+
+    /**
+     * Create a Generic JMS Connection
+     *
+     * @param listener the exception listener of the connection
+     * @return the connection
+     * @throws Exception for any error
+     */
+    Connection createConnection(ExceptionListener listener) throws Exception {
         String user = spec.getUser();
         char[] pass = spec.getPasswordChars();
         String clientID = spec.getClientId();
         String connectionFactory = spec.getConnectionFactory();
 
-        connection = setupConnection(ctx, user, Strings.fromCharArray(pass), clientID, connectionFactory);
-
-        log.debug("established connection " + this);
+        return setupConnection(user, Strings.fromCharArray(pass), clientID, connectionFactory, listener);
     }
 
     /**
      * Setup a Generic JMS Connection
      *
-     * @param ctx               the naming context
      * @param user              the user
      * @param pass              the password
      * @param clientID          the client id
      * @param connectionFactory the connection factory from JNDI
+     * @param listener          the exception listener
      * @return the connection
      * @throws Exception for any error
      */
-    private Connection setupConnection(Context ctx, String user, String pass, String clientID, String connectionFactory) throws Exception {
+    private Connection setupConnection(String user, String pass, String clientID, String connectionFactory,
+                                       ExceptionListener listener) throws Exception {
         log.debug("Attempting to lookup connection factory " + connectionFactory);
-        Object preliminaryObject = lookup(ctx, connectionFactory, Object.class);
+        Object preliminaryObject = lookup(connectionFactory, Object.class);
         log.debug("Got connection factory " + preliminaryObject + " from " + connectionFactory);
         log.debug("Attempting to create connection with user " + user);
         Connection result;
@@ -464,7 +830,7 @@ public class JmsActivation implements ExceptionListener {
             if (clientID != null) {
                 result.setClientID(clientID);
             }
-            result.setExceptionListener(this);
+            result.setExceptionListener(listener);
             log.debug("Using generic connection " + result);
             return result;
         } catch (Throwable t) {
@@ -484,6 +850,13 @@ public class JmsActivation implements ExceptionListener {
      * Teardown the connection
      */
     protected void teardownConnection() {
+        if (sharedConnection != null) {
+            sharedConnection.removeListener(this);
+            ra.releaseSharedConnection(sharedConnection);
+            sharedConnection = null;
+            connection = null;
+            return;
+        }
         try {
             if (connection != null) {
                 log.debug("Closing the " + connection);
@@ -501,7 +874,8 @@ public class JmsActivation implements ExceptionListener {
      * @throws Exception for any error
      */
     protected void setupSessionPool() throws Exception {
-        pool = new JmsServerSessionPool(this);
+        int count = getConnectionCount();
+        pool = new JmsServerSessionPool(this, connection, 0, count);
         log.debug("Created session pool " + pool);
 
         log.debug("Starting session pool " + pool);
@@ -511,14 +885,26 @@ public class JmsActivation implements ExceptionListener {
         log.debug("Starting delivery " + connection);
         connection.start();
         log.debug("Started delivery " + connection);
+
+        for (int i = 1; i < count; ++i) {
+            JmsActivationConnection additional = new JmsActivationConnection(this, i, count);
+            connections.add(additional);
+            additional.setup();
+        }
     }
 
     /**
      * Teardown the server session pool
      */
     protected void teardownSessionPool() {
+        for (JmsActivationConnection additional : connections) {
+            additional.close();
+        }
+        connections.clear();
+
         try {
-            if (connection != null) {
+            // A shared connection keeps delivering to the other activations
+            if (connection != null && sharedConnection == null) {
                 log.debug("Stopping delivery " + connection);
                 connection.stop();
             }
@@ -537,6 +923,38 @@ public class JmsActivation implements ExceptionListener {
         pool = null;
     }
 
+    /**
+     * Handles a reconnect attempt
+     */
+    private class ReconnectActivation implements Work {
+        public void run() {
+            reconnectTask = null;
+            if (!deliveryActive.get()) {
+                inFailure.set(false);
+                return;
+            }
+
+            log.info("Attempting to reconnect " + spec);
+            try {
+                setupActivation();
+                log.info("Reconnected with messaging provider");
+                inFailure.set(false);
+                // The activation may have been stopped during the attempt
+                if (!deliveryActive.get()) {
+                    teardown();
+                }
+            } catch (Throwable t) {
+                log.error("Unable to reconnect " + spec, t);
+                ++reconnectCount;
+                teardown();
+                scheduleReconnect();
+            }
+        }
+
+        public void release() {
+        }
+    }
+
     /**
      * Handles the setup
      */
@@ -561,14 +979,14 @@ public class JmsActivation implements ExceptionListener {
         }
     }
 
-    private static Object lookup(Context context, String name, Class<?> clazz) throws Exception {
-        Object result = context.lookup(name);
+    private Object lookup(String name, Class<?> clazz) throws Exception {
+        Object result = ra.getJndiCache().lookup(spec.getJndiParameters(), name);
         Class<?> objectClass = result.getClass();
         if (clazz.isAssignableFrom(objectClass) == false) {
+            ra.getJndiCache().invalidate(spec.getJndiParameters(), name);
             StringBuffer buffer = new StringBuffer(100);
             buffer.append("Object at '").append(name);
-            buffer.append("' in context ").append(context.getEnvironment());
-            buffer.append(" is not an instance of ");
+            buffer.append("' is not an instance of ");
             appendClassInfo(buffer, clazz);
             buffer.append(" object class is ");
             appendClassInfo(buffer, result.getClass());
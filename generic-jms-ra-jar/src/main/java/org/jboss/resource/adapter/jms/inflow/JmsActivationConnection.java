@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.util.SecurityActions;
+
+/**
+ * An additional connection of an activation with connectionCount greater than
+ * one, with its own session pool.
+ * <p>
+ * The activation recovers its first connection together with the destination.
+ * Each additional connection recovers on its own: when it fails only its
+ * sessions are closed, and it is reconnected with the reconnect interval,
+ * backoff and attempts of the activation spec while the other connections
+ * keep delivering.
+ */
+public class JmsActivationConnection implements ExceptionListener {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsActivationConnection.class);
+
+    /**
+     * The activation
+     */
+    private final JmsActivation activation;
+
+    /**
+     * The index of the connection
+     */
+    private final int index;
+
+    /**
+     * The number of connections of the activation
+     */
+    private final int count;
+
+    /**
+     * Whether the connection is in its failure recovery
+     */
+    private final AtomicBoolean inFailure = new AtomicBoolean(false);
+
+    /**
+     * Whether the connection was closed for good
+     */
+    private volatile boolean closed;
+
+    /**
+     * The number of failed reconnect attempts in the current failure recovery
+     */
+    private volatile int reconnectCount;
+
+    /**
+     * The pending reconnect attempt
+     */
+    private volatile TimerTask reconnectTask;
+
+    /**
+     * The connection
+     */
+    private Connection connection;
+
+    /**
+     * The server session pool
+     */
+    volatile JmsServerSessionPool pool;
+
+    /**
+     * Create a new connection
+     *
+     * @param activation the activation
+     * @param index      the index of the connection
+     * @param count      the number of connections of the activation
+     */
+    public JmsActivationConnection(JmsActivation activation, int index, int count) {
+        this.activation = activation;
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Open the connection and start its session pool
+     *
+     * @throws Exception for any error
+     */
+    public synchronized void setup() throws Exception {
+        log.debug("Setting up connection " + index + " of " + activation.getActivationSpec());
+        connection = activation.createConnection(this);
+        JmsServerSessionPool created = new JmsServerSessionPool(activation, connection, index, count);
+        pool = created;
+        created.start();
+        connection.start();
+        log.debug("Started delivery " + connection);
+    }
+
+    /**
+     * Stop the session pool and close the connection
+     */
+    public synchronized void teardown() {
+        JmsServerSessionPool current = pool;
+        pool = null;
+        try {
+            if (connection != null) {
+                connection.stop();
+            }
+        } catch (Throwable t) {
+            log.debug("Error stopping delivery " + connection, t);
+        }
+        try {
+            if (current != null) {
+                current.stop();
+            }
+        } catch (Throwable t) {
+            log.debug("Error clearing the pool " + current, t);
+        }
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing the connection " + connection, t);
+        }
+        connection = null;
+    }
+
+    /**
+     * Close the connection for good, cancelling any reconnect attempt
+     */
+    public void close() {
+        closed = true;
+        TimerTask task = reconnectTask;
+        if (task != null) {
+            task.cancel();
+        }
+        teardown();
+    }
+
+    @Override
+    public void onException(JMSException exception) {
+        log.warn("Failure of connection " + index + " of jms activation " + activation.getActivationSpec(), exception);
+        if (closed || inFailure.getAndSet(true)) {
+            return;
+        }
+        reconnectCount = 0;
+        teardown();
+        scheduleReconnect();
+    }
+
+    /**
+     * Schedule the next reconnect attempt, or leave the failure recovery when
+     * the connection was closed or the reconnect attempts are exhausted
+     */
+    private void scheduleReconnect() {
+        JmsActivationSpec spec = activation.getActivationSpec();
+        if (closed) {
+            inFailure.set(false);
+            return;
+        }
+        if (spec.getReconnectAttempts() != -1 && reconnectCount >= spec.getReconnectAttempts()) {
+            log.error("Giving up reconnecting connection " + index + " of " + spec + " after " + reconnectCount + " attempts");
+            inFailure.set(false);
+            return;
+        }
+
+        long delay = activation.getReconnectDelay(reconnectCount);
+        log.debug("Reconnecting connection " + index + " of " + spec + " in " + delay + " milliseconds");
+        TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    activation.getWorkManager().scheduleWork(new Reconnect());
+                } catch (WorkException e) {
+                    log.error("Unable to schedule reconnecting connection " + index, e);
+                    ++reconnectCount;
+                    scheduleReconnect();
+                }
+            }
+        };
+        reconnectTask = task;
+        activation.getTimer().schedule(task, delay);
+    }
+
+    @Override
+    public String toString() {
+        return "JmsActivationConnection(" + index + "/" + count + " connection=" + connection + ")";
+    }
+
+    /**
+     * Handles a reconnect attempt
+     */
+    private class Reconnect implements Work {
+        public void run() {
+            reconnectTask = null;
+            if (closed) {
+                inFailure.set(false);
+                return;
+            }
+
+            ClassLoader oldTCCL = SecurityActions.getThreadContextClassLoader();
+            try {
+                SecurityActions.setThreadContextClassLoader(JmsActivation.class.getClassLoader());
+                setup();
+                log.info("Reconnected connection " + index + " of " + activation.getActivationSpec());
+                inFailure.set(false);
+                // The activation may have been stopped during the attempt
+                if (closed) {
+                    teardown();
+                }
+            } catch (Throwable t) {
+                log.error("Unable to reconnect connection " + index + " of " + activation.getActivationSpec(), t);
+                ++reconnectCount;
+                teardown();
+                scheduleReconnect();
+            } finally {
+                SecurityActions.setThreadContextClassLoader(oldTCCL);
+            }
+        }
+
+        public void release() {
+        }
+    }
+}
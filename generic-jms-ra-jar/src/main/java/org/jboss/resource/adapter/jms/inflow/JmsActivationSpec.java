@@ -94,6 +94,16 @@ public class JmsActivationSpec implements ActivationSpec {
      */
     private long reconnectInterval = 10;
 
+    /**
+     * The maximum reconnect interval in seconds
+     */
+    private long maxReconnectInterval = 300;
+
+    /**
+     * The factor applied to the reconnect interval after each failed attempt
+     */
+    private double reconnectBackoffMultiplier = 2.0;
+
     /**
      * The user
      */
@@ -119,6 +129,131 @@ public class JmsActivationSpec implements ActivationSpec {
      */
     private int maxSession = 15;
 
+    /**
+     * How long in milliseconds a session above minSession may stay idle before it is closed
+     */
+    private long sessionIdleTimeout = 60000;
+
+    /**
+     * The maximum number of messages delivered in one transaction
+     */
+    private int deliveryBatchSize = 1;
+
+    /**
+     * The maximum time in milliseconds a transaction is kept open for more messages, 0 for no limit
+     */
+    private long deliveryBatchTimeout = 0;
+
+    /**
+     * The maximum number of sessions set up concurrently when the activation starts
+     */
+    private int sessionSetupConcurrency = 4;
+
+    /**
+     * Whether messages are delivered on virtual threads instead of work manager threads
+     */
+    private boolean useVirtualThreads = false;
+
+    /**
+     * Whether messages are dispatched by a connection consumer, otherwise each session polls its own consumer
+     */
+    private boolean useConnectionConsumer = true;
+
+    /**
+     * The initial receive timeout in milliseconds when polling
+     */
+    private long receiveTimeout = 500;
+
+    /**
+     * The maximum receive timeout in milliseconds when polling
+     */
+    private long maxReceiveTimeout = 5000;
+
+    /**
+     * Whether messages with the same ordering key are delivered in order
+     */
+    private boolean orderedDelivery = false;
+
+    /**
+     * The message property holding the ordering key
+     */
+    private String orderingKeyProperty = "JMSXGroupID";
+
+    /**
+     * The maximum number of messages delivered per second, 0 for no limit
+     */
+    private int maxDeliveryRate = 0;
+
+    /**
+     * The average listener time in milliseconds above which delivery is paused, 0 for no limit
+     */
+    private long maxDeliveryLatency = 0;
+
+    /**
+     * The tenured heap occupancy percentage after a collection above which delivery is paused, 0 for no limit
+     */
+    private int maxHeapOccupancy = 0;
+
+    /**
+     * Whether the number of sessions delivering messages at the same time adapts to the listener time
+     */
+    private boolean adaptiveConcurrency = false;
+
+    /**
+     * The number of connections the sessions are spread over
+     */
+    private int connectionCount = 1;
+
+    /**
+     * Whether the connection is shared with the other activations using the same connection factory and user
+     */
+    private boolean shareConnection = false;
+
+    /**
+     * Whether topic subscriptions are shared subscriptions
+     */
+    private boolean shareSubscriptions = false;
+
+    /**
+     * The number of message keys remembered to filter out duplicates, 0 to deliver duplicates
+     */
+    private int duplicateCacheSize = 0;
+
+    /**
+     * The time in milliseconds a message key is remembered, 0 until it is evicted by newer keys
+     */
+    private long duplicateWindow = 0;
+
+    /**
+     * The message property holding the key duplicates are detected with, JMSMessageID when not set
+     */
+    private String duplicateKeyProperty;
+
+    /**
+     * The number of failed deliveries after which a message is rolled back without being delivered, 0 to always deliver
+     */
+    private int poisonMessageThreshold = 0;
+
+    /**
+     * The initial time in milliseconds a poison message is rolled back without being delivered
+     */
+    private long poisonMessageBackoff = 1000;
+
+    /**
+     * The maximum time in milliseconds a poison message is rolled back without being delivered
+     */
+    private long maxPoisonMessageBackoff = 60000;
+
+    /**
+     * The number of messages acknowledged at once by non-transacted sessions, 0 to use the acknowledgeMode
+     */
+    private int acknowledgeBatchSize = 0;
+
+    /**
+     * The maximum time in milliseconds a consumed message is left unacknowledged, 0 for no limit
+     */
+    private long acknowledgeBatchTimeout = 1000;
+
     //Default to -1 attempts (i.e. infinite)
     private int reconnectAttempts = -1;
 
@@ -345,6 +480,41 @@ public class JmsActivationSpec implements ActivationSpec {
         return reconnectInterval * 1000;
     }
 
+    /**
+     * @return the maximum reconnect interval in seconds.
+     */
+    public long getMaxReconnectInterval() {
+        return maxReconnectInterval;
+    }
+
+    /**
+     * @param maxReconnectInterval the maximum reconnect interval in seconds.
+     */
+    public void setMaxReconnectInterval(long maxReconnectInterval) {
+        this.maxReconnectInterval = maxReconnectInterval;
+    }
+
+    /**
+     * @return the maximum reconnect interval in milliseconds, never less than the reconnect interval
+     */
+    public long getMaxReconnectIntervalLong() {
+        return Math.max(maxReconnectInterval * 1000, getReconnectIntervalLong());
+    }
+
+    /**
+     * @return the factor applied to the reconnect interval after each failed attempt, 1 for a fixed interval.
+     */
+    public double getReconnectBackoffMultiplier() {
+        return reconnectBackoffMultiplier;
+    }
+
+    /**
+     * @param reconnectBackoffMultiplier the factor applied to the reconnect interval after each failed attempt, 1 for a fixed interval.
+     */
+    public void setReconnectBackoffMultiplier(double reconnectBackoffMultiplier) {
+        this.reconnectBackoffMultiplier = reconnectBackoffMultiplier;
+    }
+
     /**
      * @return the user.
      */
@@ -446,6 +616,409 @@ public class JmsActivationSpec implements ActivationSpec {
         return maxSession;
     }
 
+    /**
+     * @return how long in milliseconds a session above minSession may stay idle before it is closed, 0 to keep idle sessions.
+     */
+    public long getSessionIdleTimeout() {
+        return sessionIdleTimeout;
+    }
+
+    /**
+     * @param sessionIdleTimeout how long in milliseconds a session above minSession may stay idle before it is closed, 0 to keep idle sessions.
+     */
+    public void setSessionIdleTimeout(long sessionIdleTimeout) {
+        this.sessionIdleTimeout = sessionIdleTimeout;
+    }
+
+    /**
+     * Only applies to transacted delivery, or to endpoints implementing BatchMessageListener
+     * which receive each batch in a single invocation. With a ConnectionConsumer, messages are
+     * grouped within the messages handed to a session at once, so maxMessages is raised to the
+     * batch size.
+     *
+     * @return the maximum number of messages delivered in one transaction.
+     */
+    public int getDeliveryBatchSize() {
+        return deliveryBatchSize;
+    }
+
+    /**
+     * @param deliveryBatchSize the maximum number of messages delivered in one transaction.
+     */
+    public void setDeliveryBatchSize(int deliveryBatchSize) {
+        this.deliveryBatchSize = deliveryBatchSize;
+    }
+
+    /**
+     * With a ConnectionConsumer, a batch is also completed once the messages handed to
+     * the session at once have been delivered.
+     *
+     * @return the maximum time in milliseconds a transaction is kept open for more messages, 0 for no limit.
+     */
+    public long getDeliveryBatchTimeout() {
+        return deliveryBatchTimeout;
+    }
+
+    /**
+     * @param deliveryBatchTimeout the maximum time in milliseconds a transaction is kept open for more messages, 0 for no limit.
+     */
+    public void setDeliveryBatchTimeout(long deliveryBatchTimeout) {
+        this.deliveryBatchTimeout = deliveryBatchTimeout;
+    }
+
+    /**
+     * The sessions, minSession and maxSession are split evenly among the connections.
+     * Activations of a topic without shared subscriptions, with a client id or with ordered delivery use a single connection.
+     * There are no more connections than maxSession.
+     *
+     * @return the number of connections the sessions are spread over.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @param connectionCount the number of connections the sessions are spread over.
+     */
+    public void setConnectionCount(int connectionCount) {
+        this.connectionCount = connectionCount;
+    }
+
+    /**
+     * Activations with a client id always use their own connection. A shared connection
+     * is used alone, connectionCount does not apply.
+     *
+     * @return whether the connection is shared with the other activations using the same connection factory, JNDI parameters and credentials.
+     */
+    public boolean isShareConnection() {
+        return shareConnection;
+    }
+
+    /**
+     * @param shareConnection whether the connection is shared with the other activations using the same connection factory, JNDI parameters and credentials.
+     */
+    public void setShareConnection(boolean shareConnection) {
+        this.shareConnection = shareConnection;
+    }
+
+    /**
+     * A shared subscription, durable or not, is identified by the subscriptionName and
+     * its messages are spread over all its consumers, on this node and on the others.
+     *
+     * @return whether topic subscriptions are JMS 2.0 shared subscriptions.
+     */
+    public boolean isShareSubscriptions() {
+        return shareSubscriptions;
+    }
+
+    /**
+     * @param shareSubscriptions whether topic subscriptions are JMS 2.0 shared subscriptions.
+     */
+    public void setShareSubscriptions(boolean shareSubscriptions) {
+        this.shareSubscriptions = shareSubscriptions;
+    }
+
+    /**
+     * @return the maximum number of sessions set up concurrently when the activation starts.
+     */
+    public int getSessionSetupConcurrency() {
+        return sessionSetupConcurrency;
+    }
+
+    /**
+     * @param sessionSetupConcurrency the maximum number of sessions set up concurrently when the activation starts.
+     */
+    public void setSessionSetupConcurrency(int sessionSetupConcurrency) {
+        this.sessionSetupConcurrency = sessionSetupConcurrency;
+    }
+
+    /**
+     * Virtual threads require Java 21, older JVMs use a dedicated executor with up to maxSession threads.
+     *
+     * @return whether messages are delivered on virtual threads instead of work manager threads.
+     */
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * @param useVirtualThreads whether messages are delivered on virtual threads instead of work manager threads.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    /**
+     * @return whether messages are dispatched by a connection consumer, otherwise each session polls its own consumer.
+     */
+    public boolean isUseConnectionConsumer() {
+        return useConnectionConsumer;
+    }
+
+    /**
+     * @param useConnectionConsumer whether messages are dispatched by a connection consumer, otherwise each session polls its own consumer.
+     */
+    public void setUseConnectionConsumer(boolean useConnectionConsumer) {
+        this.useConnectionConsumer = useConnectionConsumer;
+    }
+
+    /**
+     * The receive timeout doubles after each empty receive up to maxReceiveTimeout
+     * and drops back to this value as soon as a message is received.
+     *
+     * @return the initial receive timeout in milliseconds when polling.
+     */
+    public long getReceiveTimeout() {
+        return receiveTimeout;
+    }
+
+    /**
+     * @param receiveTimeout the initial receive timeout in milliseconds when polling.
+     */
+    public void setReceiveTimeout(long receiveTimeout) {
+        this.receiveTimeout = receiveTimeout;
+    }
+
+    /**
+     * Messages with the same key are delivered one after the other by the same
+     * session while messages with different keys are delivered in parallel by
+     * up to maxSession sessions. Up to maxSession * maxMessages messages are
+     * received in one local transaction, committed once they have all been
+     * delivered and rolled back when any delivery fails. Only the messages of
+     * the failed key are delivered again, but a message can still be delivered
+     * more than once after a failover. The endpoint must not be transacted.
+     * Messages received by one session are read by several threads, so the
+     * provider must not stream message bodies from the session.
+     *
+     * @return whether messages with the same ordering key are delivered in order.
+     */
+    public boolean isOrderedDelivery() {
+        return orderedDelivery;
+    }
+
+    /**
+     * @param orderedDelivery whether messages with the same ordering key are delivered in order.
+     */
+    public void setOrderedDelivery(boolean orderedDelivery) {
+        this.orderedDelivery = orderedDelivery;
+    }
+
+    /**
+     * The number of sessions delivering messages at the same time starts at minSession
+     * and grows up to maxSession while it does not slow down the listener. It does not
+     * apply to ordered delivery.
+     *
+     * @return whether the number of sessions delivering messages at the same time adapts to the listener time.
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @param adaptiveConcurrency whether the number of sessions delivering messages at the same time adapts to the listener time.
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * The keys of the messages delivered successfully are kept off the heap, 16 bytes
+     * each. A message whose key is found is consumed without being delivered.
+     *
+     * @return the number of message keys remembered to filter out duplicates, 0 to deliver duplicates.
+     */
+    public int getDuplicateCacheSize() {
+        return duplicateCacheSize;
+    }
+
+    /**
+     * @param duplicateCacheSize the number of message keys remembered to filter out duplicates, 0 to deliver duplicates.
+     */
+    public void setDuplicateCacheSize(int duplicateCacheSize) {
+        this.duplicateCacheSize = duplicateCacheSize;
+    }
+
+    /**
+     * @return the time in milliseconds a message key is remembered, 0 until it is evicted by newer keys.
+     */
+    public long getDuplicateWindow() {
+        return duplicateWindow;
+    }
+
+    /**
+     * @param duplicateWindow the time in milliseconds a message key is remembered, 0 until it is evicted by newer keys.
+     */
+    public void setDuplicateWindow(long duplicateWindow) {
+        this.duplicateWindow = duplicateWindow;
+    }
+
+    /**
+     * @return the message property holding the key duplicates are detected with, JMSMessageID when not set.
+     */
+    public String getDuplicateKeyProperty() {
+        return duplicateKeyProperty;
+    }
+
+    /**
+     * @param duplicateKeyProperty the message property holding the key duplicates are detected with, JMSMessageID when not set.
+     */
+    public void setDuplicateKeyProperty(String duplicateKeyProperty) {
+        this.duplicateKeyProperty = duplicateKeyProperty;
+    }
+
+    /**
+     * Only applies to transacted delivery. Failures of untransacted deliveries are
+     * only tracked to aggregate their logs. A message rolled back without being
+     * delivered is given back at once, the redelivery delay of the provider keeps
+     * it from coming straight back.
+     *
+     * @return the number of failed deliveries after which a message is rolled back without being delivered, 0 to always deliver.
+     */
+    public int getPoisonMessageThreshold() {
+        return poisonMessageThreshold;
+    }
+
+    /**
+     * @param poisonMessageThreshold the number of failed deliveries after which a message is rolled back without being delivered, 0 to always deliver.
+     */
+    public void setPoisonMessageThreshold(int poisonMessageThreshold) {
+        this.poisonMessageThreshold = poisonMessageThreshold;
+    }
+
+    /**
+     * @return the initial time in milliseconds a poison message is rolled back without being delivered, doubled after each further failure.
+     */
+    public long getPoisonMessageBackoff() {
+        return poisonMessageBackoff;
+    }
+
+    /**
+     * @param poisonMessageBackoff the initial time in milliseconds a poison message is rolled back without being delivered.
+     */
+    public void setPoisonMessageBackoff(long poisonMessageBackoff) {
+        this.poisonMessageBackoff = poisonMessageBackoff;
+    }
+
+    /**
+     * @return the maximum time in milliseconds a poison message is rolled back without being delivered.
+     */
+    public long getMaxPoisonMessageBackoff() {
+        return maxPoisonMessageBackoff;
+    }
+
+    /**
+     * @param maxPoisonMessageBackoff the maximum time in milliseconds a poison message is rolled back without being delivered.
+     */
+    public void setMaxPoisonMessageBackoff(long maxPoisonMessageBackoff) {
+        this.maxPoisonMessageBackoff = maxPoisonMessageBackoff;
+    }
+
+    /**
+     * When greater than 1, non-transacted sessions use CLIENT_ACKNOWLEDGE and acknowledge
+     * their messages once acknowledgeBatchSize messages have been consumed or the oldest
+     * unacknowledged message is older than acknowledgeBatchTimeout, whichever comes first.
+     * After a failure of the connection up to acknowledgeBatchSize messages per session,
+     * consumed within the last acknowledgeBatchTimeout, may be delivered again.
+     *
+     * @return the number of messages acknowledged at once, 0 to use the acknowledgeMode.
+     */
+    public int getAcknowledgeBatchSize() {
+        return acknowledgeBatchSize;
+    }
+
+    /**
+     * @param acknowledgeBatchSize the number of messages acknowledged at once, 0 to use the acknowledgeMode.
+     */
+    public void setAcknowledgeBatchSize(int acknowledgeBatchSize) {
+        this.acknowledgeBatchSize = acknowledgeBatchSize;
+    }
+
+    /**
+     * @return the maximum time in milliseconds a consumed message is left unacknowledged, 0 for no limit.
+     */
+    public long getAcknowledgeBatchTimeout() {
+        return acknowledgeBatchTimeout;
+    }
+
+    /**
+     * @param acknowledgeBatchTimeout the maximum time in milliseconds a consumed message is left unacknowledged, 0 for no limit.
+     */
+    public void setAcknowledgeBatchTimeout(long acknowledgeBatchTimeout) {
+        this.acknowledgeBatchTimeout = acknowledgeBatchTimeout;
+    }
+
+    /**
+     * @return the maximum number of messages delivered per second, 0 for no limit.
+     */
+    public int getMaxDeliveryRate() {
+        return maxDeliveryRate;
+    }
+
+    /**
+     * @param maxDeliveryRate the maximum number of messages delivered per second, 0 for no limit.
+     */
+    public void setMaxDeliveryRate(int maxDeliveryRate) {
+        this.maxDeliveryRate = maxDeliveryRate;
+    }
+
+    /**
+     * @return the average listener time in milliseconds above which delivery is paused, 0 for no limit.
+     */
+    public long getMaxDeliveryLatency() {
+        return maxDeliveryLatency;
+    }
+
+    /**
+     * @param maxDeliveryLatency the average listener time in milliseconds above which delivery is paused, 0 for no limit.
+     */
+    public void setMaxDeliveryLatency(long maxDeliveryLatency) {
+        this.maxDeliveryLatency = maxDeliveryLatency;
+    }
+
+    /**
+     * @return the tenured heap occupancy percentage after a collection above which delivery is paused, 0 for no limit.
+     */
+    public int getMaxHeapOccupancy() {
+        return maxHeapOccupancy;
+    }
+
+    /**
+     * @param maxHeapOccupancy the tenured heap occupancy percentage after a collection above which delivery is paused, 0 for no limit.
+     */
+    public void setMaxHeapOccupancy(int maxHeapOccupancy) {
+        this.maxHeapOccupancy = maxHeapOccupancy;
+    }
+
+    /**
+     * @return the message property holding the ordering key.
+     */
+    public String getOrderingKeyProperty() {
+        return orderingKeyProperty;
+    }
+
+    /**
+     * @param orderingKeyProperty the message property holding the ordering key.
+     */
+    public void setOrderingKeyProperty(String orderingKeyProperty) {
+        this.orderingKeyProperty = orderingKeyProperty;
+    }
+
+    /**
+     * This also bounds how long stopping the activation waits for an idle polling session.
+     *
+     * @return the maximum receive timeout in milliseconds when polling.
+     */
+    public long getMaxReceiveTimeout() {
+        return maxReceiveTimeout;
+    }
+
+    /**
+     * @param maxReceiveTimeout the maximum receive timeout in milliseconds when polling.
+     */
+    public void setMaxReceiveTimeout(long maxReceiveTimeout) {
+        this.maxReceiveTimeout = maxReceiveTimeout;
+    }
+
     @Override
     public ResourceAdapter getResourceAdapter() {
         return ra;
@@ -469,6 +1042,10 @@ public class JmsActivationSpec implements ActivationSpec {
         if (connectionFactory == null || "".equals(connectionFactory.trim())) {
             throw new InvalidPropertyException("connectionFactory is mandatory");
         }
+
+        if (shareSubscriptions && (subscriptionName == null || "".equals(subscriptionName.trim()))) {
+            throw new InvalidPropertyException("subscriptionName is mandatory for shared subscriptions");
+        }
     }
 
     @Override
@@ -489,8 +1066,13 @@ public class JmsActivationSpec implements ActivationSpec {
         if (subscriptionName != null) {
             buffer.append(" subscriptionName=").append(subscriptionName);
         }
+        if (shareSubscriptions) {
+            buffer.append(" shareSubscriptions=true");
+        }
         buffer.append(" reconnectInterval=").append(reconnectInterval);
         buffer.append(" reconnectAttempts=").append(reconnectAttempts);
+        buffer.append(" maxReconnectInterval=").append(maxReconnectInterval);
+        buffer.append(" reconnectBackoffMultiplier=").append(reconnectBackoffMultiplier);
         buffer.append(" user=").append(user);
         if (pass != null) {
             buffer.append(" password=").append("<not shown>");
@@ -498,6 +1080,58 @@ public class JmsActivationSpec implements ActivationSpec {
         buffer.append(" maxMessages=").append(maxMessages);
         buffer.append(" minSession=").append(minSession);
         buffer.append(" maxSession=").append(maxSession);
+        buffer.append(" sessionIdleTimeout=").append(sessionIdleTimeout);
+        buffer.append(" sessionSetupConcurrency=").append(sessionSetupConcurrency);
+        if (connectionCount > 1) {
+            buffer.append(" connectionCount=").append(connectionCount);
+        }
+        if (shareConnection) {
+            buffer.append(" shareConnection=true");
+        }
+        if (deliveryBatchSize > 1) {
+            buffer.append(" deliveryBatchSize=").append(deliveryBatchSize);
+            buffer.append(" deliveryBatchTimeout=").append(deliveryBatchTimeout);
+        }
+        if (useVirtualThreads) {
+            buffer.append(" useVirtualThreads=true");
+        }
+        if (!useConnectionConsumer) {
+            buffer.append(" useConnectionConsumer=false");
+            buffer.append(" receiveTimeout=").append(receiveTimeout);
+            buffer.append(" maxReceiveTimeout=").append(maxReceiveTimeout);
+        }
+        if (orderedDelivery) {
+            buffer.append(" orderedDelivery=true");
+            buffer.append(" orderingKeyProperty=").append(orderingKeyProperty);
+        }
+        if (adaptiveConcurrency) {
+            buffer.append(" adaptiveConcurrency=true");
+        }
+        if (duplicateCacheSize > 0) {
+            buffer.append(" duplicateCacheSize=").append(duplicateCacheSize);
+            buffer.append(" duplicateWindow=").append(duplicateWindow);
+            if (duplicateKeyProperty != null) {
+                buffer.append(" duplicateKeyProperty=").append(duplicateKeyProperty);
+            }
+        }
+        if (poisonMessageThreshold > 0) {
+            buffer.append(" poisonMessageThreshold=").append(poisonMessageThreshold);
+            buffer.append(" poisonMessageBackoff=").append(poisonMessageBackoff);
+            buffer.append(" maxPoisonMessageBackoff=").append(maxPoisonMessageBackoff);
+        }
+        if (acknowledgeBatchSize > 1) {
+            buffer.append(" acknowledgeBatchSize=").append(acknowledgeBatchSize);
+            buffer.append(" acknowledgeBatchTimeout=").append(acknowledgeBatchTimeout);
+        }
+        if (maxDeliveryRate > 0) {
+            buffer.append(" maxDeliveryRate=").append(maxDeliveryRate);
+        }
+        if (maxDeliveryLatency > 0) {
+            buffer.append(" maxDeliveryLatency=").append(maxDeliveryLatency);
+        }
+        if (maxHeapOccupancy > 0) {
+            buffer.append(" maxHeapOccupancy=").append(maxHeapOccupancy);
+        }
         buffer.append(" connectionFactory=").append(connectionFactory);
 
         if (jndiParameters != null) {
@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.resource.adapter.jms.util.LatencyHistogram;
+
+/**
+ * The delivery statistics of a jms activation. They are kept across
+ * reconnects and recorded without locking or allocating.
+ */
+public class JmsActivationStatistics implements JmsActivationStatisticsMXBean {
+
+    private final JmsActivation activation;
+
+    final AtomicLong deliveredCount = new AtomicLong();
+
+    final AtomicLong failedCount = new AtomicLong();
+
+    final AtomicLong shortCircuitedCount = new AtomicLong();
+
+    final AtomicLong duplicateHitCount = new AtomicLong();
+
+    final AtomicLong duplicateMissCount = new AtomicLong();
+
+    final LatencyHistogram serverSessionWaitTime = new LatencyHistogram();
+
+    final LatencyHistogram beforeDeliveryTime = new LatencyHistogram();
+
+    final LatencyHistogram listenerTime = new LatencyHistogram();
+
+    final LatencyHistogram afterDeliveryTime = new LatencyHistogram();
+
+    /**
+     * Create the statistics
+     *
+     * @param activation the activation
+     */
+    public JmsActivationStatistics(JmsActivation activation) {
+        this.activation = activation;
+    }
+
+    @Override
+    public String getActivationSpec() {
+        return String.valueOf(activation.getActivationSpec());
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public long getShortCircuitedCount() {
+        return shortCircuitedCount.get();
+    }
+
+    @Override
+    public long getDuplicateHitCount() {
+        return duplicateHitCount.get();
+    }
+
+    @Override
+    public long getDuplicateMissCount() {
+        return duplicateMissCount.get();
+    }
+
+    @Override
+    public int getBusySessionCount() {
+        int count = 0;
+        for (JmsServerSessionPool pool : activation.getSessionPools()) {
+            count += pool.getBusySessionCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getIdleSessionCount() {
+        int count = 0;
+        for (JmsServerSessionPool pool : activation.getSessionPools()) {
+            count += pool.getIdleSessionCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getCurrentConcurrency() {
+        return getBusySessionCount();
+    }
+
+    @Override
+    public int getTargetConcurrency() {
+        int limit = 0;
+        for (JmsServerSessionPool pool : activation.getSessionPools()) {
+            limit += pool.getConcurrencyLimit();
+        }
+        return limit;
+    }
+
+    @Override
+    public boolean isDeliveryPaused() {
+        JmsBackpressureController backpressure = activation.getBackpressureController();
+        return backpressure != null && backpressure.isPaused();
+    }
+
+    @Override
+    public long getDeliveryPauseCount() {
+        JmsBackpressureController backpressure = activation.getBackpressureController();
+        return backpressure == null ? 0 : backpressure.getPauseCount();
+    }
+
+    @Override
+    public long getDeliveryPausedTime() {
+        JmsBackpressureController backpressure = activation.getBackpressureController();
+        return backpressure == null ? 0 : backpressure.getPausedTime();
+    }
+
+    @Override
+    public LatencyHistogram getServerSessionWaitTime() {
+        return serverSessionWaitTime;
+    }
+
+    @Override
+    public LatencyHistogram getBeforeDeliveryTime() {
+        return beforeDeliveryTime;
+    }
+
+    @Override
+    public LatencyHistogram getListenerTime() {
+        return listenerTime;
+    }
+
+    @Override
+    public LatencyHistogram getAfterDeliveryTime() {
+        return afterDeliveryTime;
+    }
+}
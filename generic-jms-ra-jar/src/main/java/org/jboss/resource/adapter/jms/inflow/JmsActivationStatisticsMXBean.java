@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import org.jboss.resource.adapter.jms.util.LatencyHistogram;
+
+/**
+ * The delivery statistics of a jms activation, published over JMX.
+ */
+public interface JmsActivationStatisticsMXBean {
+
+    /**
+     * @return the activation spec
+     */
+    String getActivationSpec();
+
+    /**
+     * @return the number of messages delivered to the endpoint
+     */
+    long getDeliveredCount();
+
+    /**
+     * @return the number of messages whose delivery failed
+     */
+    long getFailedCount();
+
+    /**
+     * @return the number of poison messages rolled back without being delivered
+     */
+    long getShortCircuitedCount();
+
+    /**
+     * @return the number of duplicate messages consumed without being delivered
+     */
+    long getDuplicateHitCount();
+
+    /**
+     * @return the number of messages checked for duplicates and delivered
+     */
+    long getDuplicateMissCount();
+
+    /**
+     * @return the number of sessions delivering messages
+     */
+    int getBusySessionCount();
+
+    /**
+     * @return the number of sessions waiting for messages
+     */
+    int getIdleSessionCount();
+
+    /**
+     * @return the number of sessions delivering messages at the same time
+     */
+    int getCurrentConcurrency();
+
+    /**
+     * @return the number of sessions allowed to deliver messages at the same time
+     */
+    int getTargetConcurrency();
+
+    /**
+     * @return whether delivery is paused by the backpressure controller
+     */
+    boolean isDeliveryPaused();
+
+    /**
+     * @return the number of times delivery was paused by the backpressure controller
+     */
+    long getDeliveryPauseCount();
+
+    /**
+     * @return the time in milliseconds delivery was paused by the backpressure controller
+     */
+    long getDeliveryPausedTime();
+
+    /**
+     * @return the time the connection consumer waited for a server session
+     */
+    LatencyHistogram getServerSessionWaitTime();
+
+    /**
+     * @return the time spent in beforeDelivery
+     */
+    LatencyHistogram getBeforeDeliveryTime();
+
+    /**
+     * @return the time spent in the message listener
+     */
+    LatencyHistogram getListenerTime();
+
+    /**
+     * @return the time spent in afterDelivery
+     */
+    LatencyHistogram getAfterDeliveryTime();
+}
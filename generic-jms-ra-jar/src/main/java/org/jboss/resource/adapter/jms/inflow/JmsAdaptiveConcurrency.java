@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Adjusts the number of sessions delivering messages at the same time,
+ * between minSession and maxSession, with an additive increase
+ * multiplicative decrease algorithm.
+ * <p>
+ * The limit starts at minSession and doubles while sessions are waiting for
+ * a permit and the listener keeps its speed. After that it grows by one
+ * session per period while sessions are waiting. It shrinks by a quarter as
+ * soon as the average listener time of a period is more than twice the best
+ * recent average, which drifts up slowly so that a lasting slowdown of the
+ * downstream resources becomes the new baseline.
+ */
+public class JmsAdaptiveConcurrency {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsAdaptiveConcurrency.class);
+
+    /**
+     * The period in milliseconds the limit is adjusted
+     */
+    private static final long ADJUSTMENT_PERIOD = 1000;
+
+    /**
+     * The ratio of the average listener time to the baseline above which the limit shrinks
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * The factor applied to the limit when it shrinks
+     */
+    private static final double DECREASE_FACTOR = 0.75;
+
+    /**
+     * The growth of the baseline per period
+     */
+    private static final double BASELINE_DRIFT = 1.02;
+
+    /**
+     * The session pool
+     */
+    private final JmsServerSessionPool pool;
+
+    /**
+     * The minimum limit
+     */
+    private final int minLimit;
+
+    /**
+     * The maximum limit
+     */
+    private final int maxLimit;
+
+    /**
+     * One permit per session allowed to deliver messages
+     */
+    private final Gate gate = new Gate();
+
+    /**
+     * The current limit
+     */
+    private volatile int limit;
+
+    /**
+     * Whether the limit is still doubling
+     */
+    private boolean slowStart = true;
+
+    /**
+     * The best recent average listener time in nanoseconds, 0 before the first period with deliveries
+     */
+    private double baseline;
+
+    /**
+     * The number of deliveries in the current period
+     */
+    private final AtomicLong deliveries = new AtomicLong();
+
+    /**
+     * The listener time in nanoseconds of the deliveries in the current period
+     */
+    private final AtomicLong latency = new AtomicLong();
+
+    /**
+     * The number of times a session had to wait for a permit in the current period
+     */
+    private final AtomicLong waits = new AtomicLong();
+
+    /**
+     * The number of messages per second in the last period
+     */
+    private volatile long throughput;
+
+    /**
+     * The task adjusting the limit
+     */
+    private TimerTask adjustment;
+
+    /**
+     * Create a new adaptive concurrency limit
+     *
+     * @param pool     the session pool
+     * @param minLimit the minimum limit
+     * @param maxLimit the maximum limit
+     */
+    public JmsAdaptiveConcurrency(JmsServerSessionPool pool, int minLimit, int maxLimit) {
+        this.pool = pool;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.limit = this.minLimit;
+        gate.release(this.minLimit);
+    }
+
+    /**
+     * Start adjusting the limit
+     *
+     * @param timer the timer
+     */
+    public void start(Timer timer) {
+        adjustment = new TimerTask() {
+            @Override
+            public void run() {
+                adjust();
+            }
+        };
+        timer.schedule(adjustment, ADJUSTMENT_PERIOD, ADJUSTMENT_PERIOD);
+    }
+
+    /**
+     * Stop adjusting the limit and release any waiting session
+     */
+    public void stop() {
+        if (adjustment != null) {
+            adjustment.cancel();
+        }
+        gate.release(maxLimit);
+    }
+
+    /**
+     * Wait for a permit to deliver messages
+     *
+     * @throws InterruptedException when interrupted
+     */
+    public void acquire() throws InterruptedException {
+        if (!gate.tryAcquire()) {
+            waits.incrementAndGet();
+            gate.acquire();
+        }
+    }
+
+    /**
+     * Wait for a permit to receive and deliver messages. A polling session
+     * takes its permit before it knows whether a message is coming, so the
+     * wait is not counted as demand, see {@link #recordPolledMessage()}.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return whether a permit was taken
+     * @throws InterruptedException when interrupted
+     */
+    public boolean acquirePoller(long timeout) throws InterruptedException {
+        return gate.tryAcquire() || gate.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record that a polling session received a message, counting a wait when
+     * other sessions are waiting for a permit
+     */
+    public void recordPolledMessage() {
+        if (gate.hasQueuedThreads()) {
+            waits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Give back a permit
+     */
+    public void release() {
+        gate.release();
+    }
+
+    /**
+     * Record the time spent in the listener
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void recordLatency(long nanos) {
+        deliveries.incrementAndGet();
+        latency.addAndGet(nanos);
+    }
+
+    /**
+     * @return the number of sessions allowed to deliver messages at the same time
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of messages delivered per second in the last period
+     */
+    public long getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Adjust the limit to the deliveries of the last period
+     */
+    protected synchronized void adjust() {
+        if (pool.stopped) {
+            return;
+        }
+        long count = deliveries.getAndSet(0);
+        long total = latency.getAndSet(0);
+        long waited = waits.getAndSet(0);
+        throughput = count * 1000 / ADJUSTMENT_PERIOD;
+        if (count == 0) {
+            return;
+        }
+
+        double average = (double) total / count;
+        int current = limit;
+        int target = current;
+        if (baseline > 0 && average > baseline * LATENCY_TOLERANCE) {
+            slowStart = false;
+            target = Math.max(minLimit, (int) (current * DECREASE_FACTOR));
+        } else if (waited > 0) {
+            target = Math.min(maxLimit, slowStart ? current * 2 : current + 1);
+        }
+        baseline = baseline == 0 ? average : Math.min(average, baseline * BASELINE_DRIFT);
+
+        if (target != current) {
+            if (target > current) {
+                gate.release(target - current);
+            } else {
+                gate.reducePermits(current - target);
+            }
+            limit = target;
+            if (log.isDebugEnabled()) {
+                log.debug("Concurrency limit of " + pool + " changed from " + current + " to " + target
+                        + ", average listener time " + (long) (average / 1000) + "us, " + throughput + " msg/s");
+            }
+        }
+    }
+
+    /**
+     * A semaphore whose permits can be taken away
+     */
+    private static class Gate extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Gate() {
+            super(0);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
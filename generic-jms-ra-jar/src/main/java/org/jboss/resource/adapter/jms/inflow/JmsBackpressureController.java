@@ -0,0 +1,359 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Holds back the delivery of an activation under pressure.
+ * <p>
+ * Sessions take a permit before receiving each message, or before delivering
+ * each message handed to them by the connection consumer. Permits are limited
+ * by a token bucket refilled at maxDeliveryRate messages per second. Delivery
+ * is paused altogether while the average listener time is above
+ * maxDeliveryLatency, or while the occupancy of the tenured heap pool after
+ * the last collection is above maxHeapOccupancy percent.
+ * <p>
+ * The pressure is evaluated once per second. A paused delivery resumes once
+ * the average listener time, which decays while nothing is delivered, falls
+ * below 80% of the limit, or once the heap occupancy falls 5% below its limit.
+ */
+public class JmsBackpressureController {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsBackpressureController.class);
+
+    /**
+     * The weight of a new sample in the average listener time
+     */
+    private static final double LATENCY_WEIGHT = 0.1;
+
+    /**
+     * The period in milliseconds the pressure is evaluated
+     */
+    private static final long EVALUATION_PERIOD = 1000;
+
+    /**
+     * The activation spec
+     */
+    private final JmsActivationSpec spec;
+
+    /**
+     * The maximum number of messages per second, 0 for no limit
+     */
+    private final int maxRate;
+
+    /**
+     * The maximum average listener time in nanoseconds, 0 for no limit
+     */
+    private final long maxLatency;
+
+    /**
+     * The maximum heap occupancy after a collection, 0 for no limit
+     */
+    private final double maxHeapOccupancy;
+
+    /**
+     * The tokens left in the bucket
+     */
+    private double tokens;
+
+    /**
+     * When the bucket was last refilled
+     */
+    private long lastRefill;
+
+    /**
+     * The average listener time in nanoseconds, as double bits
+     */
+    private final AtomicLong averageLatency = new AtomicLong(Double.doubleToLongBits(0));
+
+    /**
+     * The number of listener times recorded
+     */
+    private final AtomicLong samples = new AtomicLong();
+
+    /**
+     * The number of samples at the last evaluation
+     */
+    private long lastSamples;
+
+    /**
+     * Whether delivery is paused because the listener is too slow
+     */
+    private volatile boolean latencyPaused;
+
+    /**
+     * Whether delivery is paused because the heap is too full
+     */
+    private volatile boolean heapPaused;
+
+    /**
+     * When delivery was paused
+     */
+    private long pausedSince;
+
+    /**
+     * The number of times delivery was paused
+     */
+    private final AtomicLong pauseCount = new AtomicLong();
+
+    /**
+     * The time in milliseconds delivery was paused, up to the last resume
+     */
+    private final AtomicLong pausedTime = new AtomicLong();
+
+    /**
+     * Whether the controller is stopped
+     */
+    private volatile boolean stopped;
+
+    /**
+     * The task evaluating the pressure
+     */
+    private TimerTask evaluation;
+
+    /**
+     * Create a new controller
+     *
+     * @param spec the activation spec
+     */
+    public JmsBackpressureController(JmsActivationSpec spec) {
+        this.spec = spec;
+        this.maxRate = Math.max(0, spec.getMaxDeliveryRate());
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos(Math.max(0, spec.getMaxDeliveryLatency()));
+        this.maxHeapOccupancy = Math.max(0, spec.getMaxHeapOccupancy()) / 100.0;
+        this.tokens = maxRate;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @param spec the activation spec
+     * @return whether the activation spec sets any limit
+     */
+    public static boolean isEnabled(JmsActivationSpec spec) {
+        return spec.getMaxDeliveryRate() > 0 || spec.getMaxDeliveryLatency() > 0 || spec.getMaxHeapOccupancy() > 0;
+    }
+
+    /**
+     * Start evaluating the pressure
+     *
+     * @param timer the timer
+     */
+    public void start(Timer timer) {
+        if (maxLatency > 0 || maxHeapOccupancy > 0) {
+            evaluation = new TimerTask() {
+                @Override
+                public void run() {
+                    evaluate();
+                }
+            };
+            timer.schedule(evaluation, EVALUATION_PERIOD, EVALUATION_PERIOD);
+        }
+    }
+
+    /**
+     * Stop the controller and release any waiting session
+     */
+    public void stop() {
+        stopped = true;
+        if (evaluation != null) {
+            evaluation.cancel();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until a message can be delivered
+     *
+     * @param pool the session pool, waiting ends when it is stopped
+     * @throws InterruptedException when interrupted
+     */
+    public void acquire(JmsServerSessionPool pool) throws InterruptedException {
+        if (!isPaused() && maxRate == 0) {
+            return;
+        }
+        synchronized (this) {
+            awaitResume(pool);
+            if (maxRate == 0) {
+                return;
+            }
+            refill();
+            while (tokens < 1 && !stopped && !pool.stopped) {
+                long wait = (long) Math.ceil((1 - tokens) * 1000 / maxRate);
+                wait(Math.max(1, wait));
+                refill();
+            }
+            tokens -= 1;
+        }
+    }
+
+    /**
+     * Wait while delivery is paused, without taking a permit
+     *
+     * @param pool the session pool, waiting ends when it is stopped
+     * @throws InterruptedException when interrupted
+     */
+    public synchronized void awaitResume(JmsServerSessionPool pool) throws InterruptedException {
+        while (isPaused() && !stopped && !pool.stopped) {
+            wait(EVALUATION_PERIOD);
+        }
+    }
+
+    /**
+     * Record the time spent in the listener
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void recordLatency(long nanos) {
+        if (maxLatency == 0) {
+            return;
+        }
+        samples.incrementAndGet();
+        long current;
+        long updated;
+        do {
+            current = averageLatency.get();
+            double average = Double.longBitsToDouble(current);
+            updated = Double.doubleToLongBits(average + LATENCY_WEIGHT * (nanos - average));
+        } while (!averageLatency.compareAndSet(current, updated));
+    }
+
+    /**
+     * @return whether delivery is paused
+     */
+    public boolean isPaused() {
+        return latencyPaused || heapPaused;
+    }
+
+    /**
+     * @return the number of times delivery was paused
+     */
+    public long getPauseCount() {
+        return pauseCount.get();
+    }
+
+    /**
+     * @return the time in milliseconds delivery was paused
+     */
+    public synchronized long getPausedTime() {
+        long time = pausedTime.get();
+        if (isPaused()) {
+            time += System.currentTimeMillis() - pausedSince;
+        }
+        return time;
+    }
+
+    /**
+     * @return the average listener time in milliseconds
+     */
+    public double getAverageLatencyMillis() {
+        return Double.longBitsToDouble(averageLatency.get()) / 1000000;
+    }
+
+    /**
+     * Evaluate the listener time and the heap occupancy
+     */
+    protected void evaluate() {
+        boolean wasPaused = isPaused();
+
+        if (maxLatency > 0) {
+            long count = samples.get();
+            double average = Double.longBitsToDouble(averageLatency.get());
+            if (count == lastSamples && average > 0) {
+                // Nothing was delivered, let the average decay so that delivery resumes
+                average /= 2;
+                averageLatency.set(Double.doubleToLongBits(average));
+            }
+            lastSamples = count;
+            if (latencyPaused) {
+                latencyPaused = average > maxLatency * 0.8;
+            } else if (average > maxLatency) {
+                latencyPaused = true;
+                log.warn("Pausing delivery, the average listener time is " + (long) (average / 1000000) + "ms " + spec);
+            }
+        }
+
+        if (maxHeapOccupancy > 0) {
+            double occupancy = getHeapOccupancy();
+            if (heapPaused) {
+                heapPaused = occupancy > maxHeapOccupancy - 0.05;
+            } else if (occupancy > maxHeapOccupancy) {
+                heapPaused = true;
+                log.warn("Pausing delivery, the heap occupancy after the last collection is " + (int) (occupancy * 100) + "% " + spec);
+            }
+        }
+
+        boolean paused = isPaused();
+        if (paused != wasPaused) {
+            synchronized (this) {
+                if (paused) {
+                    pausedSince = System.currentTimeMillis();
+                    pauseCount.incrementAndGet();
+                } else {
+                    pausedTime.addAndGet(System.currentTimeMillis() - pausedSince);
+                    log.info("Resuming delivery " + spec);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The young generation pools are emptied by every minor collection, so only
+     * the tenured pool, the heap pool supporting a usage threshold, tells how
+     * much memory is retained. Without one the whole heap is measured.
+     *
+     * @return the occupancy of the tenured pool after its last collection
+     */
+    static double getHeapOccupancy() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid() || !pool.isUsageThresholdSupported()) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0) {
+                return (double) usage.getUsed() / usage.getMax();
+            }
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getMax() > 0 ? (double) heap.getUsed() / heap.getMax() : 0;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxRate, tokens + (now - lastRefill) * maxRate / 1e9);
+        lastRefill = now;
+    }
+}
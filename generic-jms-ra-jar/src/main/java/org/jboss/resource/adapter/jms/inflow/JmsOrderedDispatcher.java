@@ -0,0 +1,436 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Dispatches the messages of an ordered activation to the sessions of the pool.
+ * <p>
+ * A single transacted session receives a window of messages. Each message is
+ * assigned to a lane by hashing the value of the ordering key property, each
+ * lane is delivered in order by one server session and the lanes are delivered
+ * in parallel. Messages without a key are spread over the lanes.
+ * <p>
+ * The window is committed once all the lanes delivered their messages. When a
+ * delivery fails its lane stops and the window is rolled back. The identifiers
+ * of the messages already delivered are kept until a window is committed, so
+ * when the provider delivers them again they are acknowledged with the window
+ * without being delivered again: only the lane of the failed message repeats
+ * its deliveries. The endpoint transactions could not include the receipt of
+ * the messages, so transacted endpoints are rejected by the activation.
+ * <p>
+ * The session is only used by the dispatching thread, which waits while the
+ * lanes deliver, but the messages it received are read by the lane threads.
+ * This relies on a received message not sharing state with its session, which
+ * does not hold for providers streaming the body of large messages from the
+ * session when it is read.
+ */
+public class JmsOrderedDispatcher implements Work {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsOrderedDispatcher.class);
+
+    /**
+     * The session pool
+     */
+    private final JmsServerSessionPool pool;
+
+    /**
+     * The server session delivering each lane
+     */
+    private final List<JmsServerSession> lanes;
+
+    /**
+     * The number of lanes delivering messages
+     */
+    final AtomicInteger busyLanes = new AtomicInteger();
+
+    /**
+     * The identifiers of the messages delivered since the last commit
+     */
+    private final Set<String> deliveredIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Whether the dispatcher has been closed
+     */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * The session receiving the messages
+     */
+    private Session session;
+
+    /**
+     * The consumer
+     */
+    private MessageConsumer consumer;
+
+    /**
+     * The lane of the next message without a key
+     */
+    private int nextLane;
+
+    /**
+     * Whether the dispatcher was asked to stop
+     */
+    private volatile boolean released;
+
+    /**
+     * Create a new dispatcher
+     *
+     * @param pool  the session pool
+     * @param lanes the server session delivering each lane
+     */
+    public JmsOrderedDispatcher(JmsServerSessionPool pool, List<JmsServerSession> lanes) {
+        this.pool = pool;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Create the consumer and start dispatching on a long running work
+     *
+     * @throws Exception for any error
+     */
+    public void start() throws Exception {
+        try {
+            session = pool.getConnection().createSession(true, Session.SESSION_TRANSACTED);
+            consumer = pool.createMessageConsumer(session);
+            ExecutorService executor = pool.getActivation().getDeliveryExecutor();
+            if (executor != null) {
+                executor.execute(this);
+            } else {
+                pool.getActivation().getWorkManager().scheduleWork(this, WorkManager.INDEFINITE, null, new WorkAdapter() {
+                    @Override
+                    public void workRejected(WorkEvent e) {
+                        log.warn("Dispatching ordered messages was rejected " + e.getException());
+                        close();
+                    }
+                });
+            }
+        } catch (Exception e) {
+            close();
+            throw e;
+        }
+        log.debug("Started dispatching ordered messages to " + lanes.size() + " sessions for " + pool);
+    }
+
+    @Override
+    public void run() {
+        JmsActivationSpec spec = pool.getActivation().getActivationSpec();
+        long timeout = Math.max(1, spec.getReceiveTimeout());
+        int windowSize = lanes.size() * Math.max(1, spec.getMaxMessagesInt());
+        String keyProperty = spec.getOrderingKeyProperty();
+        ArrayList<Message> window = new ArrayList<>(windowSize);
+        JmsBackpressureController backpressure = pool.getActivation().getBackpressureController();
+
+        try {
+            while (!released && !pool.stopped) {
+                try {
+                    if (backpressure != null) {
+                        backpressure.acquire(pool);
+                    }
+                    Message message = consumer.receive(timeout);
+                    if (message == null) {
+                        continue;
+                    }
+                    window.add(message);
+                    while (window.size() < windowSize) {
+                        if (backpressure != null) {
+                            if (backpressure.isPaused()) {
+                                break;
+                            }
+                            backpressure.acquire(pool);
+                        }
+                        if ((message = consumer.receiveNoWait()) == null) {
+                            break;
+                        }
+                        window.add(message);
+                    }
+
+                    if (dispatch(window, keyProperty)) {
+                        session.commit();
+                        deliveredIds.clear();
+                    } else {
+                        session.rollback();
+                        if (deliveredIds.size() > windowSize * 4) {
+                            // The provider is not delivering the same messages again
+                            deliveredIds.clear();
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (released || pool.stopped) {
+                        break;
+                    }
+                    log.debug("Error dispatching ordered messages " + this, t);
+                    rollback();
+                    // Back off, the connection failure is handled by the exception listener
+                    Thread.sleep(timeout);
+                } finally {
+                    window.clear();
+                }
+            }
+        } catch (Throwable t) {
+            log.error("Unable to dispatch ordered messages " + this, t);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    /**
+     * Deliver a window of messages
+     *
+     * @param window      the messages in the order they were received
+     * @param keyProperty the property holding the ordering key
+     * @return whether all the messages were delivered
+     * @throws Exception for any error
+     */
+    private boolean dispatch(List<Message> window, String keyProperty) throws Exception {
+        List<List<Message>> partitions = new ArrayList<>(lanes.size());
+        for (int i = 0; i < lanes.size(); ++i) {
+            partitions.add(new ArrayList<Message>());
+        }
+        for (Message message : window) {
+            partitions.get(getLane(message, keyProperty)).add(message);
+        }
+
+        ArrayList<LaneWork> works = new ArrayList<>(lanes.size());
+        for (int i = 0; i < lanes.size(); ++i) {
+            if (!partitions.get(i).isEmpty()) {
+                works.add(new LaneWork(lanes.get(i), partitions.get(i)));
+            }
+        }
+
+        // The dispatching thread delivers the first lane itself
+        CountDownLatch done = new CountDownLatch(works.size());
+        for (int i = 1; i < works.size(); ++i) {
+            works.get(i).schedule(done);
+        }
+        works.get(0).deliver(done);
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (LaneWork work : works) {
+            if (!work.delivered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param message     the message
+     * @param keyProperty the property holding the ordering key
+     * @return the lane of the message
+     * @throws JMSException for any error reading the key
+     */
+    private int getLane(Message message, String keyProperty) throws JMSException {
+        Object key = keyProperty == null ? null : message.getObjectProperty(keyProperty);
+        if (key == null) {
+            int lane = nextLane;
+            nextLane = (lane + 1) % lanes.size();
+            return lane;
+        }
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % lanes.size();
+    }
+
+    /**
+     * @param message the message
+     * @return the message identifier, or null when the provider does not set it
+     */
+    private static String getMessageID(Message message) {
+        try {
+            return message.getJMSMessageID();
+        } catch (JMSException e) {
+            return null;
+        }
+    }
+
+    private void rollback() {
+        try {
+            session.rollback();
+        } catch (Throwable t) {
+            log.debug("Error rolling back " + session, t);
+        }
+    }
+
+    /**
+     * Close the consumer and the session, and retire the lanes
+     */
+    private void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (consumer != null) {
+                consumer.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing consumer " + consumer, t);
+        }
+        try {
+            if (session != null) {
+                session.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing session " + session, t);
+        }
+        for (JmsServerSession lane : lanes) {
+            pool.retireSession(lane);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JmsOrderedDispatcher(" + pool.getActivation().getActivationSpec() + ")";
+    }
+
+    /**
+     * Delivers the messages of one lane in order, stopping at the first failure
+     */
+    private class LaneWork extends WorkAdapter implements Work {
+        private final JmsServerSession lane;
+
+        private final List<Message> messages;
+
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private CountDownLatch done;
+
+        volatile boolean delivered;
+
+        LaneWork(JmsServerSession lane, List<Message> messages) {
+            this.lane = lane;
+            this.messages = messages;
+        }
+
+        void schedule(CountDownLatch done) {
+            this.done = done;
+            try {
+                ExecutorService executor = pool.getActivation().getDeliveryExecutor();
+                if (executor != null) {
+                    executor.execute(this);
+                } else {
+                    pool.getActivation().getWorkManager().scheduleWork(this, WorkManager.INDEFINITE, null, this);
+                }
+            } catch (RejectedExecutionException | WorkException e) {
+                log.debug("Unable to schedule the delivery of a lane, delivering it now", e);
+                run();
+            }
+        }
+
+        void deliver(CountDownLatch done) {
+            this.done = done;
+            run();
+        }
+
+        @Override
+        public void run() {
+            // Delivered once, by the work or by the thread it was rejected to
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            busyLanes.incrementAndGet();
+            try {
+                boolean batched = pool.getActivation().isBatchListener();
+                ArrayList<String> accepted = new ArrayList<>(messages.size());
+                boolean result = true;
+                for (Message message : messages) {
+                    String id = getMessageID(message);
+                    if (id != null && deliveredIds.contains(id)) {
+                        // Delivered before the window was rolled back
+                        continue;
+                    }
+                    if (pool.stopped || !lane.deliver(message)) {
+                        result = false;
+                        break;
+                    }
+                    if (id != null) {
+                        if (batched) {
+                            accepted.add(id);
+                        } else {
+                            deliveredIds.add(id);
+                        }
+                    }
+                }
+                // Deliver the messages still batched for a batch message listener
+                boolean completed = lane.completeDelivery();
+                if (completed) {
+                    deliveredIds.addAll(accepted);
+                }
+                delivered = completed && result;
+            } finally {
+                busyLanes.decrementAndGet();
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void workRejected(WorkEvent e) {
+            run();
+        }
+    }
+}
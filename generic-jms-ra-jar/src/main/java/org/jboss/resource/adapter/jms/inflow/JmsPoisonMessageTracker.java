@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Tracks the messages whose delivery keeps failing.
+ * <p>
+ * Once a message failed poisonMessageThreshold times, counting the deliveries
+ * reported by JMSXDeliveryCount, its circuit opens: it is rolled back without
+ * being delivered until the backoff has elapsed. The next delivery is a trial,
+ * another failure opens the circuit again for twice as long, up to
+ * maxPoisonMessageBackoff. A successful delivery forgets the message.
+ * <p>
+ * A message rolled back without being delivered comes back after the
+ * redelivery delay of the provider, which should be configured so that it
+ * does not come back at once. Messages delivered before it in the same
+ * transaction are committed without it when possible.
+ * <p>
+ * Failures are logged with their stack trace at most once per log interval,
+ * the others are counted and reported with the next logged failure.
+ */
+public class JmsPoisonMessageTracker {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsPoisonMessageTracker.class);
+
+    /**
+     * The maximum number of messages tracked
+     */
+    private static final int MAX_RECORDS = 10000;
+
+    /**
+     * The minimum time in milliseconds between two logged failures
+     */
+    private static final long LOG_INTERVAL = 10000;
+
+    /**
+     * The activation spec
+     */
+    private final JmsActivationSpec spec;
+
+    /**
+     * The failure records by message id, least recently used first
+     */
+    private final LinkedHashMap<String, Record> records = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > MAX_RECORDS;
+        }
+    };
+
+    /**
+     * When a failure was last logged
+     */
+    private long lastLogged;
+
+    /**
+     * The number of failures not logged since then
+     */
+    private int suppressed;
+
+    /**
+     * Create a new tracker
+     *
+     * @param spec the activation spec
+     */
+    public JmsPoisonMessageTracker(JmsActivationSpec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @param message the message
+     * @return whether the circuit of the message is open and it must not be delivered
+     */
+    public boolean isOpen(Message message) {
+        return getOpenTime(message) > 0;
+    }
+
+    /**
+     * @param message the message
+     * @return the time in milliseconds left before the circuit of the message closes, 0 when it is closed
+     */
+    public long getOpenTime(Message message) {
+        String id = getId(message);
+        if (id == null) {
+            return 0;
+        }
+        synchronized (records) {
+            Record record = records.get(id);
+            return record == null ? 0 : Math.max(0, record.openUntil - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Record a successful delivery
+     *
+     * @param message the message
+     */
+    public void recordSuccess(Message message) {
+        String id = getId(message);
+        if (id != null) {
+            synchronized (records) {
+                if (!records.isEmpty()) {
+                    records.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a failed delivery
+     *
+     * @param message the message
+     * @param failure the failure
+     */
+    public void recordFailure(Message message, Throwable failure) {
+        String id = getId(message);
+        int failures = 0;
+        if (id != null) {
+            int delivered = getDeliveryCount(message);
+            long now = System.currentTimeMillis();
+            synchronized (records) {
+                Record record = records.get(id);
+                if (record == null) {
+                    record = new Record();
+                    records.put(id, record);
+                }
+                record.failures = Math.max(record.failures + 1, delivered);
+                failures = record.failures;
+                int threshold = spec.getPoisonMessageThreshold();
+                if (failures >= threshold) {
+                    long backoff = Math.max(1, spec.getPoisonMessageBackoff());
+                    long max = Math.max(backoff, spec.getMaxPoisonMessageBackoff());
+                    for (int i = threshold; i < failures && backoff < max; ++i) {
+                        backoff *= 2;
+                    }
+                    record.openUntil = now + Math.min(backoff, max);
+                }
+            }
+        }
+        logFailure(id, failures, failure);
+    }
+
+    /**
+     * Log a failure, or count it when one was logged recently
+     *
+     * @param id       the message id
+     * @param failures the number of failures of the message
+     * @param failure  the failure
+     */
+    private void logFailure(String id, int failures, Throwable failure) {
+        int skipped;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastLogged < LOG_INTERVAL) {
+                ++suppressed;
+                if (log.isDebugEnabled()) {
+                    log.debug("Unexpected error delivering message. JMSMessageID is " + id + ", failures " + failures + ": " + failure);
+                }
+                return;
+            }
+            lastLogged = now;
+            skipped = suppressed;
+            suppressed = 0;
+        }
+        StringBuilder buffer = new StringBuilder("Unexpected error delivering message. JMSMessageID is ");
+        buffer.append(id).append(", failures ").append(failures);
+        if (skipped > 0) {
+            buffer.append(". ").append(skipped).append(" other delivery failures in the last ")
+                    .append(LOG_INTERVAL / 1000).append(" seconds were not logged");
+        }
+        log.error(buffer.toString(), failure);
+    }
+
+    private static String getId(Message message) {
+        try {
+            return message.getJMSMessageID();
+        } catch (JMSException e) {
+            return null;
+        }
+    }
+
+    private static int getDeliveryCount(Message message) {
+        try {
+            return message.propertyExists("JMSXDeliveryCount") ? message.getIntProperty("JMSXDeliveryCount") : 0;
+        } catch (Throwable t) {
+            return 0;
+        }
+    }
+
+    private static class Record {
+        int failures;
+        long openUntil;
+    }
+}
@@ -26,6 +26,7 @@ import org.jboss.logging.Logger;
 import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.ServerSession;
 import javax.jms.Session;
@@ -34,12 +35,23 @@ import javax.jms.XASession;
 import javax.resource.spi.endpoint.MessageEndpoint;
 import javax.resource.spi.endpoint.MessageEndpointFactory;
 import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
 import javax.resource.spi.work.WorkEvent;
 import javax.resource.spi.work.WorkException;
 import javax.resource.spi.work.WorkListener;
 import javax.resource.spi.work.WorkManager;
+import javax.resource.spi.work.WorkRejectedException;
+import javax.transaction.Status;
+import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
+import org.jboss.resource.adapter.jms.util.FingerprintCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
@@ -70,6 +82,11 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
      */
     XASession xaSession;
 
+    /**
+     * The consumer when the session polls for messages
+     */
+    MessageConsumer consumer;
+
     /**
      * The endpoint
      */
@@ -77,6 +94,132 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
 
     TransactionManager tm;
 
+    /**
+     * The delivery statistics
+     */
+    JmsActivationStatistics statistics;
+
+    /**
+     * The controller holding back delivery under pressure, if any
+     */
+    JmsBackpressureController backpressure;
+
+    /**
+     * The adaptive limit of the sessions delivering messages, if any
+     */
+    JmsAdaptiveConcurrency concurrency;
+
+    /**
+     * Whether the session holds a permit of the adaptive limit
+     */
+    boolean gated;
+
+    /**
+     * The keys of the messages delivered, if duplicates are filtered out
+     */
+    FingerprintCache duplicateCache;
+
+    /**
+     * The tracker of the messages whose delivery keeps failing, if any
+     */
+    JmsPoisonMessageTracker poisonMessages;
+
+    /**
+     * Whether the endpoint is a batch message listener
+     */
+    boolean batchListener;
+
+    /**
+     * Whether the session acknowledges each batch once it has been delivered
+     */
+    boolean acknowledgeBatch;
+
+    /**
+     * Whether a batch handed by the connection consumer failed, the session is then
+     * closed without acknowledging so that its messages are delivered again
+     */
+    boolean batchFailed;
+
+    /**
+     * The messages of the current batch
+     */
+    ArrayList<Message> batch;
+
+    /**
+     * The number of messages acknowledged at once, 0 when acknowledged by the session
+     */
+    int acknowledgeSize;
+
+    /**
+     * The maximum time in milliseconds a consumed message is left unacknowledged
+     */
+    long acknowledgeTimeout;
+
+    /**
+     * The number of consumed messages not acknowledged yet
+     */
+    volatile int unacknowledgedCount;
+
+    /**
+     * The time the oldest unacknowledged message was consumed
+     */
+    volatile long firstUnacknowledged;
+
+    /**
+     * The last consumed message not acknowledged yet
+     */
+    Message lastUnacknowledged;
+
+    /**
+     * The keys of the messages delivered in the current transaction, added to the cache once it completes
+     */
+    long[] pendingKeys;
+
+    /**
+     * The number of pending keys
+     */
+    int pendingCount;
+
+    /**
+     * When the session was last returned to the pool
+     */
+    long lastReturned;
+
+    /**
+     * Whether the session was taken out of the pool for good
+     */
+    final AtomicBoolean retired = new AtomicBoolean(false);
+
+    /**
+     * The maximum number of messages delivered in one transaction
+     */
+    int batchSize = 1;
+
+    /**
+     * The maximum time in milliseconds a transaction is kept open for more messages
+     */
+    long batchTimeout;
+
+    /**
+     * Whether beforeDelivery was called without the matching afterDelivery
+     */
+    boolean inDelivery;
+
+    /**
+     * The number of messages delivered in the current transaction
+     */
+    int batchCount;
+
+    /**
+     * The number of messages still delivered in a transaction of their own after a batch was rolled back
+     */
+    int unbatchedCount;
+
+    /**
+     * When the current transaction was started
+     */
+    long batchStart;
+
     /**
      * Create a new JmsServerSession
      *
@@ -92,13 +235,30 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
     public void setup() throws Exception {
         JmsActivation activation = pool.getActivation();
         JmsActivationSpec spec = activation.getActivationSpec();
-        Connection connection = activation.getConnection();
+        Connection connection = pool.getConnection();
         XAResource xaResource = null;
         tm = activation.getTransactionManager();
+        statistics = activation.getStatistics();
+        backpressure = activation.getBackpressureController();
+        concurrency = pool.concurrency;
+        duplicateCache = activation.getDuplicateCache();
+        poisonMessages = activation.getPoisonMessageTracker();
+        batchListener = activation.isBatchListener();
+        if (batchListener) {
+            batchSize = Math.max(1, spec.getDeliveryBatchSize());
+            batchTimeout = spec.getDeliveryBatchTimeout();
+            batch = new ArrayList<>(batchSize);
+        }
 
         // Get the endpoint
         MessageEndpointFactory endpointFactory = activation.getMessageEndpointFactory();
 
+        // The messages of an ordered pool are received by its dispatcher
+        if (pool.isOrdered()) {
+            endpoint = endpointFactory.createEndpoint(null);
+            return;
+        }
+
         // Create the session
         if (activation.isDeliveryTransacted) {
             if (connection instanceof XAConnection) {
@@ -109,20 +269,49 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
             } else {
                 throw new Exception("Delivery is transacted, but client JMS implementation does not properly implement the necessary interfaces as described in section 8 of the JMS 1.1 specification.");
             }
+        } else if (batchListener) {
+            // Acknowledge the whole batch once it has been delivered
+            session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+            acknowledgeBatch = true;
+        } else if (activation.isAcknowledgeBatched()) {
+            // Acknowledge the messages in batches rather than one at a time
+            session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+            acknowledgeSize = spec.getAcknowledgeBatchSize();
+            acknowledgeTimeout = spec.getAcknowledgeBatchTimeout();
         } else {
             session = connection.createSession(false, spec.getAcknowledgeModeInt());
         }
 
         endpoint = endpointFactory.createEndpoint(xaResource);
 
-        // Set the message listener
-        session.setMessageListener(this);
+        // Group messages in one transaction
+        if (activation.isDeliveryTransacted) {
+            batchSize = Math.max(1, spec.getDeliveryBatchSize());
+            batchTimeout = spec.getDeliveryBatchTimeout();
+        }
+
+        if (pool.isPolling()) {
+            consumer = pool.createMessageConsumer(session);
+        } else {
+            // Set the message listener
+            session.setMessageListener(this);
+        }
     }
 
     /**
      * Stop the session
      */
     public void teardown() {
+        acknowledge();
+
+        try {
+            if (consumer != null) {
+                consumer.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing consumer " + consumer, t);
+        }
+
         try {
             if (endpoint != null) {
                 endpoint.release();
@@ -150,28 +339,538 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
 
     @Override
     public void onMessage(Message message) {
+        if (batchFailed) {
+            // Delivered again once the session is closed
+            return;
+        }
+        if (backpressure != null && !pool.isPolling()) {
+            // The connection consumer hands several messages to a session, charge each of them
+            try {
+                backpressure.acquire(pool);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        deliver(message);
+        if (acknowledgeSize > 0) {
+            // Like AUTO_ACKNOWLEDGE, the message is acknowledged whether its delivery failed or not
+            consumed(message);
+        }
+    }
+
+    /**
+     * Remember a consumed message, acknowledging the messages consumed so far
+     * once there are enough of them or the oldest is too old
+     *
+     * @param message the message
+     */
+    private void consumed(Message message) {
+        if (unacknowledgedCount++ == 0) {
+            firstUnacknowledged = System.currentTimeMillis();
+        }
+        lastUnacknowledged = message;
+        if (unacknowledgedCount >= acknowledgeSize) {
+            acknowledge();
+        } else {
+            acknowledgeIfDue();
+        }
+    }
+
+    /**
+     * Acknowledge the consumed messages when the oldest has been left unacknowledged for too long
+     */
+    void acknowledgeIfDue() {
+        if (isAcknowledgeDue()) {
+            acknowledge();
+        }
+    }
+
+    /**
+     * @return whether the oldest consumed message has been left unacknowledged for too long
+     */
+    boolean isAcknowledgeDue() {
+        return unacknowledgedCount > 0 && acknowledgeTimeout > 0
+                && System.currentTimeMillis() - firstUnacknowledged >= acknowledgeTimeout;
+    }
+
+    /**
+     * Acknowledge all the messages consumed by the session so far
+     */
+    void acknowledge() {
+        Message message = lastUnacknowledged;
+        if (message == null) {
+            return;
+        }
+        lastUnacknowledged = null;
+        int count = unacknowledgedCount;
+        unacknowledgedCount = 0;
+        try {
+            message.acknowledge();
+        } catch (Throwable t) {
+            log.warn("Unable to acknowledge " + count + " messages, they may be delivered again " + this, t);
+        }
+    }
+
+    /**
+     * Deliver a message to the endpoint
+     *
+     * @param message the message
+     * @return whether the message was delivered
+     */
+    boolean deliver(Message message) {
+        if (batchListener) {
+            return addToBatch(message);
+        }
         try {
-            final int timeout = pool.getActivation().getActivationSpec().getTransactionTimeout();
+            long key = 0;
+            if (duplicateCache != null) {
+                key = getDuplicateKey(message);
+                if (key != 0 && isDuplicate(key)) {
+                    statistics.duplicateHitCount.incrementAndGet();
+                    if (log.isTraceEnabled()) {
+                        log.trace("Consuming duplicate message " + message.getJMSMessageID());
+                    }
+                    if (inDelivery || tm == null || !pool.getActivation().isDeliveryTransacted()) {
+                        // Consumed with the current transaction or acknowledged by the session
+                        return true;
+                    }
+                    // Consume it in a transaction of its own
+                    beforeDelivery();
+                    afterDelivery();
+                    return true;
+                }
+                statistics.duplicateMissCount.incrementAndGet();
+            }
 
-            if (timeout > 0) {
-                log.trace("Setting transactionTimeout for JMSSessionPool to " + timeout);
-                tm.setTransactionTimeout(timeout);
+            if (poisonMessages != null && tm != null && pool.getActivation().isDeliveryTransacted()
+                    && poisonMessages.isOpen(message)) {
+                // Give the message back without spending a delivery on it
+                statistics.shortCircuitedCount.incrementAndGet();
+                if (inDelivery && !pool.isPolling()) {
+                    // Commit the messages already delivered in the open transaction
+                    afterDelivery();
+                } else if (inDelivery && batchCount > 0) {
+                    // The message was received within the open transaction, which is rolled back with it.
+                    // Deliver the messages coming back alone so that they commit without it.
+                    unbatchedCount = batchCount + 1;
+                }
+                if (!inDelivery) {
+                    beforeDelivery();
+                }
+                // Rolled back at once, the provider redelivery delay paces its return
+                setRollbackOnly();
+                pendingCount = 0;
+                afterDelivery();
+                return false;
             }
 
-            endpoint.beforeDelivery(JmsActivation.ONMESSAGE);
+            if (!inDelivery) {
+                beforeDelivery();
+            }
 
+            boolean keepOpen = false;
+            long start = System.nanoTime();
             try {
                 MessageListener listener = (MessageListener) endpoint;
                 listener.onMessage(message);
+                if (key != 0) {
+                    addPendingKey(key);
+                }
+                if (poisonMessages != null) {
+                    poisonMessages.recordSuccess(message);
+                }
+                long time = System.nanoTime() - start;
+                statistics.listenerTime.record(time);
+                if (backpressure != null) {
+                    backpressure.recordLatency(time);
+                }
+                if (concurrency != null) {
+                    concurrency.recordLatency(time);
+                }
+                statistics.deliveredCount.incrementAndGet();
+                if (unbatchedCount > 0) {
+                    --unbatchedCount;
+                }
+                keepOpen = ++batchCount < batchSize && unbatchedCount == 0 && !isBatchExpired();
+            } catch (Throwable t) {
+                statistics.listenerTime.record(System.nanoTime() - start);
+                pendingCount = 0;
+                if (batchCount > 0) {
+                    // The whole batch is rolled back, not only this message.
+                    // Deliver the messages coming back alone so that they commit without it.
+                    setRollbackOnly();
+                    unbatchedCount = batchCount + 1;
+                }
+                throw t;
             } finally {
-                endpoint.afterDelivery();
+                if (!keepOpen) {
+                    afterDelivery();
+                }
             }
+            return true;
         } catch (Throwable t) {
+            statistics.failedCount.incrementAndGet();
+            if (poisonMessages != null) {
+                poisonMessages.recordFailure(message, t);
+                return false;
+            }
             try {
                log.error("Unexpected error delivering message. JMSMessageID is " + message.getJMSMessageID(), t);
             } catch (JMSException e) {
                log.error("Unexpected error delivering message. JMSMessageID cannot be determined.", t);
             }
+            return false;
+        }
+    }
+
+    /**
+     * Start the delivery of a message, or of the first message of a batch
+     *
+     * @throws Exception for any error
+     */
+    void beforeDelivery() throws Exception {
+        final int timeout = pool.getActivation().getActivationSpec().getTransactionTimeout();
+
+        if (timeout > 0) {
+            log.trace("Setting transactionTimeout for JMSSessionPool to " + timeout);
+            tm.setTransactionTimeout(timeout);
+        }
+
+        long start = System.nanoTime();
+        endpoint.beforeDelivery(batchListener ? JmsActivation.ONMESSAGES : JmsActivation.ONMESSAGE);
+        statistics.beforeDeliveryTime.record(System.nanoTime() - start);
+        inDelivery = true;
+        batchStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Complete the delivery of a message or of a batch of messages
+     *
+     * @throws Exception for any error
+     */
+    void afterDelivery() throws Exception {
+        batchCount = 0;
+        inDelivery = false;
+        boolean remember = pendingCount > 0 && !isRollbackOnly();
+        long start = System.nanoTime();
+        try {
+            endpoint.afterDelivery();
+            if (remember) {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < pendingCount; ++i) {
+                    duplicateCache.add(pendingKeys[i], now);
+                }
+            }
+        } finally {
+            pendingCount = 0;
+            statistics.afterDeliveryTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Add a message to the current batch, delivering the batch once it is full or expired
+     *
+     * @param message the message
+     * @return whether the message was added, or the batch delivered
+     */
+    boolean addToBatch(Message message) {
+        try {
+            if (!inDelivery) {
+                beforeDelivery();
+            }
+            if (duplicateCache != null) {
+                long key = getDuplicateKey(message);
+                if (key != 0 && isDuplicate(key)) {
+                    statistics.duplicateHitCount.incrementAndGet();
+                    return true;
+                }
+                statistics.duplicateMissCount.incrementAndGet();
+                if (key != 0) {
+                    addPendingKey(key);
+                }
+            }
+            batch.add(message);
+        } catch (Throwable t) {
+            if (!inDelivery) {
+                statistics.failedCount.incrementAndGet();
+                log.error("Unexpected error adding a message to a batch", t);
+                return false;
+            }
+            // Fail the batch with the message rather than leaving its delivery open without it
+            batch.add(message);
+            completeBatch(t);
+            return false;
+        }
+        if (batch.size() >= batchSize || isBatchExpired()) {
+            return flushBatch();
+        }
+        return true;
+    }
+
+    /**
+     * Deliver the current batch and complete its transaction or acknowledge it
+     *
+     * @return whether the batch was delivered
+     */
+    boolean flushBatch() {
+        return completeBatch(null);
+    }
+
+    /**
+     * Deliver the current batch, or fail it, and complete its transaction or acknowledge it
+     *
+     * @param failure the error failing the batch before it is delivered, or null to deliver it
+     * @return whether the batch was delivered
+     */
+    private boolean completeBatch(Throwable failure) {
+        boolean delivered = false;
+        int size = batch.size();
+        Message last = size > 0 ? batch.get(size - 1) : null;
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            if (size > 0) {
+                long start = System.nanoTime();
+                try {
+                    ((BatchMessageListener) endpoint).onMessages(new ArrayList<>(batch));
+                } finally {
+                    statistics.listenerTime.record(System.nanoTime() - start);
+                }
+                statistics.deliveredCount.addAndGet(size);
+            }
+            delivered = true;
+        } catch (Throwable t) {
+            statistics.failedCount.addAndGet(size);
+            pendingCount = 0;
+            // The whole batch is rolled back
+            setRollbackOnly();
+            if (t == failure) {
+                log.error("Unexpected error adding a message to a batch of " + size + " messages", t);
+            } else {
+                log.error("Unexpected error delivering a batch of " + size + " messages", t);
+            }
+        } finally {
+            batch.clear();
+            try {
+                afterDelivery();
+            } catch (Throwable t) {
+                delivered = false;
+                statistics.failedCount.incrementAndGet();
+                log.error("Unexpected error completing the delivery of a batch of messages", t);
+            }
+        }
+
+        if (acknowledgeBatch && last != null) {
+            try {
+                if (delivered) {
+                    last.acknowledge();
+                } else if (pool.isPolling()) {
+                    // Deliver the whole batch again
+                    session.recover();
+                } else {
+                    // The session of the connection consumer cannot be recovered from its listener,
+                    // it is closed once run without acknowledging the batch
+                    batchFailed = true;
+                }
+            } catch (Throwable t) {
+                log.error("Unable to complete the acknowledgement of a batch of messages", t);
+                delivered = false;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Complete a delivery left open by the last message, delivering any pending batch
+     *
+     * @return whether the delivery completed
+     */
+    boolean completeDelivery() {
+        if (!inDelivery) {
+            return true;
+        }
+        if (batchListener) {
+            return flushBatch();
+        }
+        try {
+            afterDelivery();
+            return true;
+        } catch (Throwable t) {
+            statistics.failedCount.incrementAndGet();
+            log.error("Unexpected error completing the delivery of a batch of messages", t);
+            return false;
+        }
+    }
+
+    /**
+     * @param message the message
+     * @return the fingerprint of the key duplicates are detected with, 0 when the message has no key
+     * @throws JMSException for any error reading the key
+     */
+    private long getDuplicateKey(Message message) throws JMSException {
+        String property = pool.getActivation().getActivationSpec().getDuplicateKeyProperty();
+        Object key = property == null ? message.getJMSMessageID() : message.getObjectProperty(property);
+        return key == null ? 0 : FingerprintCache.fingerprint(key.toString());
+    }
+
+    /**
+     * @param key the fingerprint of the message key
+     * @return whether a message with the same key was delivered within the duplicate window
+     */
+    private boolean isDuplicate(long key) {
+        long window = pool.getActivation().getActivationSpec().getDuplicateWindow();
+        long notBefore = window > 0 ? System.currentTimeMillis() - window : Long.MIN_VALUE;
+        if (duplicateCache.contains(key, notBefore)) {
+            return true;
+        }
+        // Also a duplicate of a message delivered earlier in the current transaction
+        for (int i = 0; i < pendingCount; ++i) {
+            if (pendingKeys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remember the key of a message delivered in the current transaction
+     *
+     * @param key the fingerprint of the message key
+     */
+    private void addPendingKey(long key) {
+        if (pendingKeys == null) {
+            pendingKeys = new long[batchSize];
+        } else if (pendingCount == pendingKeys.length) {
+            pendingKeys = Arrays.copyOf(pendingKeys, pendingCount * 2);
+        }
+        pendingKeys[pendingCount++] = key;
+    }
+
+    /**
+     * @return whether the current transaction is marked for rollback
+     */
+    private boolean isRollbackOnly() {
+        try {
+            Transaction transaction = tm == null ? null : tm.getTransaction();
+            return transaction != null && transaction.getStatus() == Status.STATUS_MARKED_ROLLBACK;
+        } catch (Throwable t) {
+            log.trace("Unable to get the transaction status", t);
+            return false;
+        }
+    }
+
+    /**
+     * Receive and deliver a message, followed by the messages that fit in the same batch
+     *
+     * @param timeout the receive timeout in milliseconds
+     * @return whether a message was received
+     * @throws Exception for any error
+     */
+    boolean receiveAndDeliver(long timeout) throws Exception {
+        // Take the permit before the transaction is started and the message received
+        if (concurrency != null && !concurrency.acquirePoller(timeout)) {
+            return false;
+        }
+        try {
+            if (backpressure != null) {
+                backpressure.acquire(pool);
+            }
+            if (xaSession != null && !inDelivery) {
+                // The message has to be consumed within the transaction
+                beforeDelivery();
+            }
+            try {
+                Message message = consumer.receive(timeout);
+                if (message == null) {
+                    // The empty transaction is committed rather than held open across polls
+                    return false;
+                }
+                // The batch starts with its first message, not with the transaction
+                if (batchCount == 0 && (batch == null || batch.isEmpty())) {
+                    batchStart = System.currentTimeMillis();
+                }
+                if (concurrency != null) {
+                    concurrency.recordPolledMessage();
+                }
+                pool.pollerBusy();
+                try {
+                    onMessage(message);
+                    while (inDelivery) {
+                        if (backpressure != null) {
+                            backpressure.acquire(pool);
+                        }
+                        long wait = batchTimeout > 0 ? batchTimeout - (System.currentTimeMillis() - batchStart) : 0;
+                        message = wait > 0 ? consumer.receive(wait) : consumer.receiveNoWait();
+                        if (message == null) {
+                            break;
+                        }
+                        onMessage(message);
+                    }
+                } finally {
+                    pool.pollerIdle();
+                }
+                return true;
+            } finally {
+                if (inDelivery) {
+                    if (batchListener) {
+                        flushBatch();
+                    } else {
+                        afterDelivery();
+                    }
+                }
+            }
+        } finally {
+            if (concurrency != null) {
+                concurrency.release();
+            }
+        }
+    }
+
+    /**
+     * Start polling for messages on a long running work
+     *
+     * @param setup whether the session still has to be setup
+     * @throws WorkException when the work cannot be scheduled
+     */
+    void startPolling(boolean setup) throws WorkException {
+        ExecutorService executor = pool.getActivation().getDeliveryExecutor();
+        if (executor != null) {
+            try {
+                executor.execute(new Poller(setup));
+            } catch (RejectedExecutionException e) {
+                throw new WorkRejectedException(e);
+            }
+            return;
+        }
+
+        WorkManager workManager = pool.getActivation().getWorkManager();
+        workManager.scheduleWork(new Poller(setup), WorkManager.INDEFINITE, null, new WorkAdapter() {
+            @Override
+            public void workRejected(WorkEvent e) {
+                log.warn("Polling for messages was rejected " + e.getException());
+                pool.retireSession(JmsServerSession.this);
+            }
+        });
+    }
+
+    /**
+     * @return whether the current batch has been open for longer than the batch timeout
+     */
+    private boolean isBatchExpired() {
+        return batchTimeout > 0 && System.currentTimeMillis() - batchStart >= batchTimeout;
+    }
+
+    /**
+     * Mark the current transaction for rollback
+     */
+    private void setRollbackOnly() {
+        try {
+            if (tm != null && tm.getTransaction() != null) {
+                tm.setRollbackOnly();
+            }
+        } catch (Throwable t) {
+            log.debug("Unable to mark the transaction for rollback", t);
         }
     }
 
@@ -183,6 +882,27 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
     @Override
     public void start() throws JMSException {
         JmsActivation activation = pool.getActivation();
+        ExecutorService executor = activation.getDeliveryExecutor();
+        if (executor != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            JmsServerSession.this.run();
+                        } finally {
+                            pool.returnServerSession(JmsServerSession.this);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.error("Unable to execute delivery", e);
+                pool.returnServerSession(this);
+                throw new JMSException("Unable to execute delivery: " + e.toString());
+            }
+            return;
+        }
+
         WorkManager workManager = activation.getWorkManager();
         try {
             workManager.scheduleWork(this, 0, null, this);
@@ -194,7 +914,19 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
 
     @Override
     public void run() {
-        session.run();
+        try {
+            session.run();
+        } finally {
+            // Complete a batch that was not filled by the messages handed to this session
+            completeDelivery();
+            if (acknowledgeSize > 0) {
+                acknowledgeIfDue();
+            }
+            if (batchFailed) {
+                // Closing the session gives back the messages it did not acknowledge
+                pool.retireSession(this);
+            }
+        }
     }
 
     @Override
@@ -205,6 +937,74 @@ public class JmsServerSession implements ServerSession, MessageListener, Work, W
     public void workAccepted(WorkEvent e) {
     }
 
+    /**
+     * Polls the consumer of the session until the pool is stopped or the session is no longer needed
+     */
+    private class Poller implements Work {
+        private final boolean setup;
+
+        private volatile boolean released;
+
+        Poller(boolean setup) {
+            this.setup = setup;
+        }
+
+        @Override
+        public void run() {
+            JmsActivationSpec spec = pool.getActivation().getActivationSpec();
+            long minTimeout = Math.max(1, spec.getReceiveTimeout());
+            long maxTimeout = Math.max(minTimeout, spec.getMaxReceiveTimeout());
+            long idleTimeout = spec.getSessionIdleTimeout();
+            long timeout = minTimeout;
+            long lastMessage = System.currentTimeMillis();
+
+            try {
+                if (setup) {
+                    setup();
+                }
+                while (!released && !pool.stopped) {
+                    boolean received;
+                    try {
+                        if (unacknowledgedCount > 0 && acknowledgeTimeout > 0) {
+                            // Wake up in time to acknowledge the consumed messages
+                            received = receiveAndDeliver(Math.max(1, Math.min(timeout, acknowledgeTimeout)));
+                            acknowledgeIfDue();
+                        } else {
+                            received = receiveAndDeliver(timeout);
+                        }
+                    } catch (Throwable t) {
+                        if (released || pool.stopped) {
+                            break;
+                        }
+                        log.debug("Error polling for messages " + JmsServerSession.this, t);
+                        // Back off, the connection failure is handled by the exception listener
+                        Thread.sleep(timeout);
+                        received = false;
+                    }
+                    if (received) {
+                        timeout = minTimeout;
+                        lastMessage = System.currentTimeMillis();
+                    } else {
+                        timeout = Math.min(timeout * 2, maxTimeout);
+                        if (idleTimeout > 0 && System.currentTimeMillis() - lastMessage > idleTimeout) {
+                            if (pool.removePoller(JmsServerSession.this)) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                log.error("Unable to poll for messages " + JmsServerSession.this, t);
+            }
+            pool.retireSession(JmsServerSession.this);
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+
     @Override
     public void workCompleted(WorkEvent e) {
         pool.returnServerSession(this);
@@ -22,19 +22,51 @@
 package org.jboss.resource.adapter.jms.inflow;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionConsumer;
 import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
 import javax.jms.Queue;
 import javax.jms.ServerSession;
 import javax.jms.ServerSessionPool;
+import javax.jms.Session;
 import javax.jms.Topic;
+import javax.resource.spi.work.Work;
+import javax.resource.spi.work.WorkAdapter;
+import javax.resource.spi.work.WorkEvent;
+import javax.resource.spi.work.WorkException;
+import javax.resource.spi.work.WorkManager;
 
 import org.jboss.logging.Logger;
 
 /**
  * A generic jms session pool.
+ * <p>
+ * The pool starts with minSession sessions and grows on demand up to maxSession
+ * when no idle session is available, or waits for a busy session when a new
+ * one cannot be set up. Sessions above minSession are closed once they have
+ * been idle for longer than the sessionIdleTimeout.
+ * <p>
+ * When useConnectionConsumer is false the pool does not rely on the optional
+ * connection consumer facility. Each session then polls its own consumer on a
+ * long running work, and a session is added when all of them are busy. Only
+ * one session consumes a topic subscription unless shareSubscriptions is true.
+ * <p>
+ * When orderedDelivery is true the pool keeps maxSession sessions and a
+ * {@link JmsOrderedDispatcher} hands each message to a session chosen by its
+ * ordering key.
+ * <p>
+ * When adaptiveConcurrency is true the number of sessions delivering messages
+ * at the same time is limited by a {@link JmsAdaptiveConcurrency}.
  *
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  */
@@ -49,25 +81,95 @@ public class JmsServerSessionPool implements ServerSessionPool {
      */
     JmsActivation activation;
 
+    /**
+     * The connection the sessions are created from
+     */
+    Connection connection;
+
+    /**
+     * The index of this pool among the pools of the activation
+     */
+    int share;
+
+    /**
+     * The number of pools of the activation, the sessions are split among them
+     */
+    int shares;
+
     /**
      * The consumer
      */
     ConnectionConsumer consumer;
 
     /**
-     * The server sessions
+     * The idle server sessions, most recently returned first
      */
-    final ArrayList<JmsServerSession> serverSessions = new ArrayList<>();
+    final ConcurrentLinkedDeque<JmsServerSession> serverSessions = new ConcurrentLinkedDeque<>();
+
+    /**
+     * One permit per idle server session, waiters are woken one at a time
+     */
+    final Semaphore idlePermits = new Semaphore(0);
+
+    /**
+     * Monitor used only on the shutdown path to wait for in use sessions
+     */
+    final Object shutdownLock = new Object();
 
     /**
      * Whether the pool is stopped
      */
-    boolean stopped = false;
+    volatile boolean stopped = false;
 
     /**
      * The number of sessions
      */
-    int sessionCount = 0;
+    final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * The minimum number of sessions
+     */
+    int minSessions;
+
+    /**
+     * The maximum number of sessions
+     */
+    int maxSessions;
+
+    /**
+     * The task closing idle sessions
+     */
+    TimerTask idleSessionReaper;
+
+    /**
+     * The task acknowledging the messages consumed by idle sessions
+     */
+    TimerTask idleSessionAcknowledger;
+
+    /**
+     * Whether each session polls its own consumer
+     */
+    boolean polling;
+
+    /**
+     * The number of polling sessions delivering messages
+     */
+    final AtomicInteger busyPollers = new AtomicInteger();
+
+    /**
+     * Whether the messages are dispatched by their ordering key
+     */
+    boolean ordered;
+
+    /**
+     * The dispatcher of an ordered pool
+     */
+    JmsOrderedDispatcher dispatcher;
+
+    /**
+     * The adaptive limit of the sessions delivering messages, if any
+     */
+    JmsAdaptiveConcurrency concurrency;
 
     /**
      * Create a new session pool
@@ -75,7 +177,29 @@ public class JmsServerSessionPool implements ServerSessionPool {
      * @param activation the jms activation
      */
     public JmsServerSessionPool(JmsActivation activation) {
+        this(activation, activation.getConnection(), 0, 1);
+    }
+
+    /**
+     * Create a new session pool for one of the connections of an activation
+     *
+     * @param activation the jms activation
+     * @param connection the connection the sessions are created from
+     * @param share      the index of this pool among the pools of the activation
+     * @param shares     the number of pools of the activation
+     */
+    public JmsServerSessionPool(JmsActivation activation, Connection connection, int share, int shares) {
         this.activation = activation;
+        this.connection = connection;
+        this.share = share;
+        this.shares = Math.max(1, shares);
+    }
+
+    /**
+     * @return the connection the sessions are created from
+     */
+    public Connection getConnection() {
+        return connection;
     }
 
     /**
@@ -93,16 +217,79 @@ public class JmsServerSessionPool implements ServerSessionPool {
     public void start() throws Exception {
         setupSessions();
         setupConsumer();
+        setupIdleSessionReaper();
+        setupIdleSessionAcknowledger();
+        if (concurrency != null) {
+            concurrency.start(activation.getTimer());
+        }
     }
 
     /**
      * Stop the server session pool
      */
     public void stop() {
+        // Stop handing out sessions before closing the consumer
+        stopped = true;
+        idlePermits.release();
+        if (concurrency != null) {
+            concurrency.stop();
+        }
+        teardownIdleSessionReaper();
+        teardownIdleSessionAcknowledger();
         teardownConsumer();
         teardownSessions();
     }
 
+    /**
+     * @return whether each session polls its own consumer
+     */
+    public boolean isPolling() {
+        return polling;
+    }
+
+    /**
+     * @return whether the messages are dispatched by their ordering key
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return the number of sessions allowed to deliver messages at the same time
+     */
+    public int getConcurrencyLimit() {
+        JmsAdaptiveConcurrency current = concurrency;
+        return current == null ? maxSessions : current.getLimit();
+    }
+
+    /**
+     * @return the number of sessions, busy or idle
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * @return the number of sessions waiting for messages
+     */
+    public int getIdleSessionCount() {
+        if (polling) {
+            return Math.max(0, sessionCount.get() - busyPollers.get());
+        }
+        if (ordered) {
+            JmsOrderedDispatcher current = dispatcher;
+            return Math.max(0, sessionCount.get() - (current == null ? 0 : current.busyLanes.get()));
+        }
+        return idlePermits.availablePermits();
+    }
+
+    /**
+     * @return the number of sessions delivering messages
+     */
+    public int getBusySessionCount() {
+        return Math.max(0, sessionCount.get() - getIdleSessionCount());
+    }
+
     @Override
     public ServerSession getServerSession() throws JMSException {
         boolean trace = log.isTraceEnabled();
@@ -110,29 +297,65 @@ public class JmsServerSessionPool implements ServerSessionPool {
             log.trace("getServerSession");
         }
 
-        ServerSession result = null;
+        JmsBackpressureController backpressure = activation.getBackpressureController();
+        if (backpressure != null) {
+            try {
+                // The session takes a permit for each message it is handed
+                backpressure.awaitResume(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JMSException("Interrupted waiting for delivery to resume");
+            }
+        }
+
+        JmsServerSession result = null;
+        long start = System.nanoTime();
+        boolean gated = false;
 
         try {
-            synchronized (serverSessions) {
-                while (true) {
-                    int sessionsSize = serverSessions.size();
-
-                    if (stopped) {
-                        throw new Exception("Cannot get a server session after the pool is stopped");
-                    } else if (sessionsSize > 0) {
-                        result = serverSessions.remove(sessionsSize - 1);
-                        break;
-                    } else {
-                        try {
-                            serverSessions.wait();
-                        } catch (InterruptedException ignored) {
+            if (concurrency != null) {
+                concurrency.acquire();
+                gated = true;
+            }
+            while (result == null) {
+                if (stopped) {
+                    throw new Exception("Cannot get a server session after the pool is stopped");
+                }
+                if (!idlePermits.tryAcquire()) {
+                    try {
+                        result = addServerSession();
+                    } catch (Throwable t) {
+                        if (sessionCount.get() == 0) {
+                            // No session will ever be returned
+                            throw t;
                         }
+                        // For example the provider limits the number of sessions, one will be returned soon
+                        log.debug("Unable to add a session to " + this + ", waiting for an idle session", t);
                     }
+                    if (result != null) {
+                        break;
+                    }
+                    try {
+                        idlePermits.acquire();
+                    } catch (InterruptedException ignored) {
+                        continue;
+                    }
+                }
+                if (stopped) {
+                    // Pass the wake up on to the next waiter
+                    idlePermits.release();
+                    throw new Exception("Cannot get a server session after the pool is stopped");
                 }
+                result = serverSessions.pollFirst();
             }
         } catch (Throwable t) {
+            if (gated) {
+                concurrency.release();
+            }
             throw new JMSException("Unable to get a server session " + t);
         }
+        result.gated = gated;
+        activation.getStatistics().serverSessionWaitTime.record(System.nanoTime() - start);
 
         if (trace) {
             log.trace("Returning server session " + result);
@@ -147,14 +370,228 @@ public class JmsServerSessionPool implements ServerSessionPool {
      * @param session the session
      */
     protected void returnServerSession(JmsServerSession session) {
-        synchronized (serverSessions) {
+        if (session.gated) {
+            session.gated = false;
+            concurrency.release();
+        }
+        if (stopped) {
+            retireSession(session);
+            return;
+        }
+        if (session.retired.get()) {
+            // Wake up a waiter to add a session in its place
+            idlePermits.release();
+            return;
+        }
+
+        session.lastReturned = System.currentTimeMillis();
+        serverSessions.offerFirst(session);
+
+        // The pool may have been stopped after the check above and drained
+        // before the session was added. Whoever removes it tears it down.
+        if (stopped) {
+            if (serverSessions.remove(session)) {
+                retireSession(session);
+            }
+        } else {
+            idlePermits.release();
+        }
+    }
+
+    /**
+     * Teardown a session that will not be returned to the pool
+     *
+     * @param session the session
+     */
+    void retireSession(JmsServerSession session) {
+        if (!session.retired.compareAndSet(false, true)) {
+            return;
+        }
+        session.teardown();
+        sessionCount.decrementAndGet();
+        synchronized (shutdownLock) {
+            shutdownLock.notifyAll();
+        }
+    }
+
+    /**
+     * Add a session to the pool when it has not reached the maximum size
+     *
+     * @return the new session already handed out to the caller, or null if the pool is at its maximum size
+     * @throws Exception for any error setting up the session
+     */
+    protected JmsServerSession addServerSession() throws Exception {
+        int count;
+        do {
+            count = sessionCount.get();
+            if (count >= maxSessions) {
+                return null;
+            }
+        } while (!sessionCount.compareAndSet(count, count + 1));
+
+        JmsServerSession session = new JmsServerSession(this);
+        try {
+            session.setup();
+        } catch (Throwable t) {
+            retireSession(session);
+            throw t;
+        }
+        if (stopped) {
+            retireSession(session);
+            throw new Exception("Cannot get a server session after the pool is stopped");
+        }
+        log.debug("Added session " + session + " to " + this + ", " + (count + 1) + " sessions");
+        return session;
+    }
+
+    /**
+     * Called by a polling session that received a message. Adds a polling
+     * session when all of them are busy.
+     */
+    void pollerBusy() {
+        if (busyPollers.incrementAndGet() >= sessionCount.get()) {
+            addPoller();
+        }
+    }
+
+    /**
+     * Called by a polling session that delivered its messages
+     */
+    void pollerIdle() {
+        busyPollers.decrementAndGet();
+    }
+
+    /**
+     * Add a polling session when the pool has not reached the maximum size
+     */
+    protected void addPoller() {
+        int count;
+        do {
+            count = sessionCount.get();
+            if (count >= maxSessions || stopped) {
+                return;
+            }
+        } while (!sessionCount.compareAndSet(count, count + 1));
+
+        JmsServerSession session = new JmsServerSession(this);
+        try {
+            session.startPolling(true);
+            log.debug("Added polling session " + session + " to " + this + ", " + (count + 1) + " sessions");
+        } catch (Throwable t) {
+            log.debug("Unable to add a polling session to " + this, t);
+            retireSession(session);
+        }
+    }
+
+    /**
+     * Take an idle polling session out of the pool when it is above the minimum size
+     *
+     * @param session the session
+     * @return whether the session was taken out and closed
+     */
+    boolean removePoller(JmsServerSession session) {
+        int count;
+        do {
+            count = sessionCount.get();
+            if (count <= minSessions || stopped) {
+                return false;
+            }
+        } while (!sessionCount.compareAndSet(count, count - 1));
+
+        session.retired.set(true);
+        session.teardown();
+        log.debug("Removed idle polling session " + session + " from " + this + ", " + (count - 1) + " sessions");
+        synchronized (shutdownLock) {
+            shutdownLock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Close the sessions above the minimum that have been idle for too long.
+     * The least recently returned sessions are at the end of the idle deque.
+     *
+     * @param idleTimeout the idle timeout in milliseconds
+     */
+    protected void closeIdleSessions(long idleTimeout) {
+        final ArrayList<JmsServerSession> idle = new ArrayList<>();
+        long threshold = System.currentTimeMillis() - idleTimeout;
+
+        while (!stopped && sessionCount.get() - idle.size() > minSessions && idlePermits.tryAcquire()) {
+            JmsServerSession session = serverSessions.pollLast();
+            if (session == null) {
+                idlePermits.release();
+                break;
+            }
+            if (session.lastReturned > threshold) {
+                serverSessions.offerLast(session);
+                idlePermits.release();
+                break;
+            }
+            idle.add(session);
+        }
+
+        if (idle.isEmpty()) {
+            return;
+        }
+
+        log.debug("Closing " + idle.size() + " idle sessions of " + this);
+        Work work = new Work() {
+            @Override
+            public void run() {
+                for (JmsServerSession session : idle) {
+                    retireSession(session);
+                }
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        try {
+            activation.getWorkManager().scheduleWork(work);
+        } catch (WorkException e) {
+            log.debug("Unable to schedule closing idle sessions, closing them now", e);
+            work.run();
+        }
+    }
+
+    /**
+     * Acknowledge the messages consumed by idle sessions once the oldest is due.
+     * The sessions are taken out of the pool while they are acknowledged.
+     */
+    protected void acknowledgeIdleSessions() {
+        // Only take the sessions whose acknowledgement is due, the others stay available
+        ArrayList<JmsServerSession> due = new ArrayList<>();
+        for (JmsServerSession session : serverSessions) {
             if (stopped) {
-                session.teardown();
-                --sessionCount;
+                break;
+            }
+            if (!session.isAcknowledgeDue() || !idlePermits.tryAcquire()) {
+                continue;
+            }
+            if (serverSessions.removeFirstOccurrence(session)) {
+                due.add(session);
             } else {
-                serverSessions.add(session);
+                // Taken in the meantime
+                idlePermits.release();
+            }
+        }
+
+        for (JmsServerSession session : due) {
+            try {
+                session.acknowledgeIfDue();
+            } finally {
+                // The session has been idle for at least the acknowledge timeout
+                serverSessions.offerLast(session);
+                if (stopped) {
+                    if (serverSessions.remove(session)) {
+                        retireSession(session);
+                    }
+                } else {
+                    idlePermits.release();
+                }
             }
-            serverSessions.notifyAll();
         }
     }
 
@@ -163,46 +600,210 @@ public class JmsServerSessionPool implements ServerSessionPool {
      *
      * @throws Exception for any error
      */
-    @SuppressWarnings("unchecked")
     protected void setupSessions() throws Exception {
         JmsActivationSpec spec = activation.getActivationSpec();
-        ArrayList<JmsServerSession> clonedSessions = null;
+        ordered = spec.isOrderedDelivery();
+        polling = !ordered && !spec.isUseConnectionConsumer();
+        maxSessions = Math.max(1, getShare(spec.getMaxSession()));
+        if (polling && activation.isTopic() && !spec.isShareSubscriptions() && maxSessions > 1) {
+            log.debug("Only one session can consume a topic subscription when polling " + spec);
+            maxSessions = 1;
+        }
+        // A polling pool needs at least one session to notice the messages
+        minSessions = Math.max(polling ? 1 : 0, Math.min(getShare(spec.getMinSession()), maxSessions));
+        if (ordered) {
+            // Each session delivers one lane
+            minSessions = maxSessions = Math.max(1, maxSessions);
+        } else if (spec.isAdaptiveConcurrency()) {
+            concurrency = new JmsAdaptiveConcurrency(this, minSessions, maxSessions);
+        }
+        ArrayList<JmsServerSession> sessions = new ArrayList<>(minSessions);
+
+        // Create the sessions, they are torn down with the pool if the setup fails
+        for (int i = 0; i < minSessions; ++i) {
+            JmsServerSession session = new JmsServerSession(this);
+            sessions.add(session);
+            serverSessions.offerLast(session);
+            sessionCount.incrementAndGet();
+        }
+
+        // Start the sessions
+        setupSessions(sessions, spec.getSessionSetupConcurrency());
 
-        // Create the sessions
-        synchronized (serverSessions) {
-            for (int i = 0; i < spec.getMaxSession(); ++i) {
-                JmsServerSession session = new JmsServerSession(this);
-                serverSessions.add(session);
+        // Make them available
+        if (!polling && !ordered) {
+            idlePermits.release(sessions.size());
+        }
+    }
+
+    /**
+     * @param total the number of sessions of the activation
+     * @return the number of those sessions belonging to this pool
+     */
+    private int getShare(int total) {
+        return total / shares + (share < total % shares ? 1 : 0);
+    }
+
+    /**
+     * Setup sessions concurrently, the calling thread takes part in the setup
+     *
+     * @param sessions    the sessions
+     * @param concurrency the maximum number of sessions set up concurrently
+     * @throws Exception the first error setting up a session
+     */
+    protected void setupSessions(final List<JmsServerSession> sessions, int concurrency) throws Exception {
+        int workers = Math.min(concurrency, sessions.size());
+        if (workers <= 1) {
+            for (int i = 0; i < sessions.size(); ++i) {
+                sessions.get(i).setup();
             }
-            sessionCount = serverSessions.size();
-            clonedSessions = (ArrayList<JmsServerSession>) serverSessions.clone();
+            return;
         }
 
-        // Start the sessions
-        for (int i = 0; i < clonedSessions.size(); ++i) {
-            JmsServerSession session = clonedSessions.get(i);
-            session.setup();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(workers);
+
+        class SetupWork extends WorkAdapter implements Work {
+            private final AtomicBoolean finished = new AtomicBoolean(false);
+
+            @Override
+            public void run() {
+                try {
+                    int i;
+                    while (failure.get() == null && (i = next.getAndIncrement()) < sessions.size()) {
+                        try {
+                            sessions.get(i).setup();
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                } finally {
+                    finish();
+                }
+            }
+
+            @Override
+            public void release() {
+            }
+
+            @Override
+            public void workRejected(WorkEvent e) {
+                finish();
+            }
+
+            void finish() {
+                if (finished.compareAndSet(false, true)) {
+                    done.countDown();
+                }
+            }
+        }
+
+        WorkManager workManager = activation.getWorkManager();
+        for (int i = 1; i < workers; ++i) {
+            SetupWork work = new SetupWork();
+            try {
+                workManager.scheduleWork(work, WorkManager.INDEFINITE, null, work);
+            } catch (WorkException e) {
+                log.debug("Unable to schedule a session setup, continuing with fewer threads", e);
+                work.finish();
+            }
+        }
+        new SetupWork().run();
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t != null) {
+            throw new RuntimeException("Error setting up the sessions", t);
         }
     }
 
     /**
-     * Stop the sessions
+     * Setup the task closing idle sessions
      */
-    protected void teardownSessions() {
-        synchronized (serverSessions) {
-            // Disallow any new sessions
-            stopped = true;
-            serverSessions.notifyAll();
-
-            // Stop inactive sessions
-            for (int i = 0; i < serverSessions.size(); ++i) {
-                JmsServerSession session = serverSessions.get(i);
-                session.teardown();
-                --sessionCount;
+    protected void setupIdleSessionReaper() {
+        final long idleTimeout = activation.getActivationSpec().getSessionIdleTimeout();
+        if (polling || idleTimeout <= 0 || minSessions >= maxSessions) {
+            return;
+        }
+        idleSessionReaper = new TimerTask() {
+            @Override
+            public void run() {
+                closeIdleSessions(idleTimeout);
             }
+        };
+        long period = Math.max(idleTimeout / 2, 1000);
+        activation.getTimer().schedule(idleSessionReaper, period, period);
+    }
 
-            serverSessions.clear();
+    /**
+     * Setup the task acknowledging the messages consumed by idle sessions
+     */
+    protected void setupIdleSessionAcknowledger() {
+        final long timeout = activation.getActivationSpec().getAcknowledgeBatchTimeout();
+        if (polling || ordered || timeout <= 0 || !activation.isAcknowledgeBatched()) {
+            return;
+        }
+        idleSessionAcknowledger = new TimerTask() {
+            @Override
+            public void run() {
+                acknowledgeIdleSessions();
+            }
+        };
+        long period = Math.max(timeout / 2, 10);
+        activation.getTimer().schedule(idleSessionAcknowledger, period, period);
+    }
 
+    /**
+     * Stop the task acknowledging the messages consumed by idle sessions
+     */
+    protected void teardownIdleSessionAcknowledger() {
+        if (idleSessionAcknowledger != null) {
+            idleSessionAcknowledger.cancel();
+            idleSessionAcknowledger = null;
+        }
+    }
+
+    /**
+     * Stop the task closing idle sessions
+     */
+    protected void teardownIdleSessionReaper() {
+        if (idleSessionReaper != null) {
+            idleSessionReaper.cancel();
+            idleSessionReaper = null;
+        }
+    }
+
+    /**
+     * Stop the sessions
+     */
+    protected void teardownSessions() {
+        // Disallow any new sessions and wake up any waiters
+        stopped = true;
+        idlePermits.release();
+
+        // Stop inactive sessions
+        JmsServerSession session;
+        while ((session = serverSessions.pollFirst()) != null) {
+            session.teardown();
+            sessionCount.decrementAndGet();
+        }
+
+        synchronized (shutdownLock) {
             if (activation.getActivationSpec().isForceClearOnShutdown()) {
                 int attempts = 0;
                 int forceClearAttempts = activation.getActivationSpec().getForceClearAttempts();
@@ -211,12 +812,12 @@ public class JmsServerSessionPool implements ServerSessionPool {
                 log.trace(this + " force clear behavior in effect. Waiting for " + forceClearInterval
                         + " milliseconds for " + forceClearAttempts + " attempts.");
 
-                while ((sessionCount > 0) && (attempts < forceClearAttempts)) {
+                while ((sessionCount.get() > 0) && (attempts < forceClearAttempts)) {
                     try {
-                        int currentSessions = sessionCount;
-                        serverSessions.wait(forceClearInterval);
+                        int currentSessions = sessionCount.get();
+                        shutdownLock.wait(forceClearInterval);
                         // Number of session didn't change
-                        if (sessionCount == currentSessions) {
+                        if (sessionCount.get() == currentSessions) {
                             ++attempts;
                             log.trace(this + " clear attempt failed " + attempts);
                         }
@@ -225,9 +826,9 @@ public class JmsServerSessionPool implements ServerSessionPool {
                 }
             } else {
                 // Wait for inuse sessions
-                while (sessionCount > 0) {
+                while (sessionCount.get() > 0) {
                     try {
-                        serverSessions.wait();
+                        shutdownLock.wait();
                     } catch (InterruptedException ignore) {
                     }
                 }
@@ -241,14 +842,34 @@ public class JmsServerSessionPool implements ServerSessionPool {
      * @throws Exception for any error
      */
     protected void setupConsumer() throws Exception {
-        Connection connection = activation.getConnection();
+        if (polling) {
+            startPollers();
+            return;
+        }
+        if (ordered) {
+            startDispatcher();
+            return;
+        }
+
         JmsActivationSpec spec = activation.getActivationSpec();
         String selector = spec.getMessageSelector();
         int maxMessages = spec.getMaxMessagesInt();
+        if (activation.isDeliveryTransacted() || activation.isBatchListener()) {
+            // A batch is limited to the messages handed to a session at once
+            maxMessages = Math.max(maxMessages, spec.getDeliveryBatchSize());
+        }
         if (activation.isTopic()) {
             Topic topic = (Topic) activation.getDestination();
             String subscriptionName = spec.getSubscriptionName();
-            if (spec.isDurable()) {
+            if (spec.isShareSubscriptions()) {
+                if (spec.isDurable()) {
+                    consumer = connection.createSharedDurableConnectionConsumer(topic, subscriptionName, selector, this,
+                            maxMessages);
+                } else {
+                    consumer = connection.createSharedConnectionConsumer(topic, subscriptionName, selector, this,
+                            maxMessages);
+                }
+            } else if (spec.isDurable()) {
                 consumer = connection.createDurableConnectionConsumer(topic, subscriptionName, selector, this,
                         maxMessages);
             } else {
@@ -265,10 +886,74 @@ public class JmsServerSessionPool implements ServerSessionPool {
         }
     }
 
+    /**
+     * Start polling with the sessions created at startup
+     *
+     * @throws Exception for any error
+     */
+    protected void startPollers() throws Exception {
+        JmsServerSession session;
+        while ((session = serverSessions.pollFirst()) != null) {
+            try {
+                session.startPolling(false);
+            } catch (Exception e) {
+                retireSession(session);
+                throw e;
+            }
+        }
+        log.debug("Started " + sessionCount.get() + " polling sessions for " + this);
+    }
+
+    /**
+     * Start dispatching to the sessions created at startup
+     *
+     * @throws Exception for any error
+     */
+    protected void startDispatcher() throws Exception {
+        ArrayList<JmsServerSession> lanes = new ArrayList<>(sessionCount.get());
+        JmsServerSession session;
+        while ((session = serverSessions.pollFirst()) != null) {
+            lanes.add(session);
+        }
+        dispatcher = new JmsOrderedDispatcher(this, lanes);
+        dispatcher.start();
+    }
+
+    /**
+     * Create the consumer of a polling session
+     *
+     * @param session the session
+     * @return the consumer
+     * @throws JMSException for any error
+     */
+    protected MessageConsumer createMessageConsumer(Session session) throws JMSException {
+        JmsActivationSpec spec = activation.getActivationSpec();
+        String selector = spec.getMessageSelector();
+        if (activation.isTopic()) {
+            Topic topic = (Topic) activation.getDestination();
+            if (spec.isShareSubscriptions()) {
+                if (spec.isDurable()) {
+                    return session.createSharedDurableConsumer(topic, spec.getSubscriptionName(), selector);
+                } else {
+                    return session.createSharedConsumer(topic, spec.getSubscriptionName(), selector);
+                }
+            } else if (spec.isDurable()) {
+                return session.createDurableSubscriber(topic, spec.getSubscriptionName(), selector, false);
+            } else {
+                return session.createConsumer(topic, selector);
+            }
+        } else {
+            return session.createConsumer(activation.getDestination(), selector);
+        }
+    }
+
     /**
      * Stop the connection consumer
      */
     protected void teardownConsumer() {
+        if (dispatcher != null) {
+            dispatcher.release();
+        }
         try {
             if (consumer != null) {
                 log.debug("Closing the " + consumer);
@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.util.Strings;
+
+/**
+ * A physical connection shared by the activations using the same connection
+ * factory, JNDI parameters and credentials, without a client id.
+ * <p>
+ * The connection is opened by the first activation and closed when the last
+ * one releases it. It is never stopped, each activation only closes its own
+ * consumers and sessions. When the connection fails it is taken out of the
+ * registry and all the activations using it go through their failure
+ * recovery, reconnecting to a new shared connection.
+ */
+public class JmsSharedConnection implements ExceptionListener {
+    /**
+     * The logger
+     */
+    private static final Logger log = Logger.getLogger(JmsSharedConnection.class);
+
+    /**
+     * The registry key
+     */
+    private final String key;
+
+    /**
+     * The activations notified of a failure
+     */
+    private final CopyOnWriteArraySet<ExceptionListener> listeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * The number of activations holding the connection, guarded by the registry
+     */
+    private int references;
+
+    /**
+     * Whether the connection failed
+     */
+    private volatile boolean failed;
+
+    /**
+     * The connection
+     */
+    private Connection connection;
+
+    /**
+     * Create a new shared connection
+     *
+     * @param key the registry key
+     */
+    public JmsSharedConnection(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param spec                 the activation spec
+     * @param isDeliveryTransacted whether the connection has to be an XA connection
+     * @return the registry key of the connections the activation spec can share
+     */
+    public static String getKey(JmsActivationSpec spec, boolean isDeliveryTransacted) {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(spec.getConnectionFactory()).append('\u0000');
+        buffer.append(spec.getJndiParameters()).append('\u0000');
+        buffer.append(spec.getUser()).append('\u0000');
+        buffer.append(Strings.digest(spec.getPasswordChars())).append('\u0000');
+        buffer.append(isDeliveryTransacted);
+        return buffer.toString();
+    }
+
+    /**
+     * @return the registry key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the connection, opening it on first use
+     *
+     * @param activation the activation
+     * @return the connection
+     * @throws Exception for any error
+     */
+    public synchronized Connection getConnection(JmsActivation activation) throws Exception {
+        if (failed) {
+            throw new JMSException("The shared connection failed " + this);
+        }
+        if (connection == null) {
+            connection = activation.createConnection(this);
+            log.debug("Opened shared connection " + connection);
+        }
+        listeners.add(activation);
+        return connection;
+    }
+
+    /**
+     * Add a reference, called by the registry
+     *
+     * @return the number of references
+     */
+    public int incrementReferences() {
+        return ++references;
+    }
+
+    /**
+     * Remove a reference, called by the registry
+     *
+     * @return the number of references left
+     */
+    public int decrementReferences() {
+        return --references;
+    }
+
+    /**
+     * Stop notifying an activation of failures
+     *
+     * @param activation the activation
+     */
+    void removeListener(JmsActivation activation) {
+        listeners.remove(activation);
+    }
+
+    /**
+     * Close the connection, once the last activation released it
+     */
+    public synchronized void close() {
+        try {
+            if (connection != null) {
+                log.debug("Closing shared connection " + connection);
+                connection.close();
+            }
+        } catch (Throwable t) {
+            log.debug("Error closing the shared connection " + connection, t);
+        }
+        connection = null;
+    }
+
+    /**
+     * @return whether the connection failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public void onException(JMSException exception) {
+        failed = true;
+        log.debug("Shared connection failed, notifying " + listeners.size() + " activations " + this, exception);
+        for (ExceptionListener listener : listeners) {
+            try {
+                listener.onException(exception);
+            } catch (Throwable t) {
+                log.debug("Error notifying " + listener, t);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JmsSharedConnection(" + connection + " references=" + references + " failed=" + failed + ")";
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Destination;
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+/**
+ * A bounded cache of the queues and topics created by name, evicting the
+ * least recently used destinations. The hit and miss counters may be shared
+ * by several caches.
+ */
+public class DestinationCache {
+
+    private final Map<String, Destination> destinations;
+
+    private final AtomicLong hits;
+
+    private final AtomicLong misses;
+
+    /**
+     * Create a new cache
+     *
+     * @param maxSize the maximum number of destinations
+     * @param hits    the number of lookups finding a destination
+     * @param misses  the number of lookups finding none
+     */
+    public DestinationCache(final int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.destinations = new LinkedHashMap<String, Destination>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Destination> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    /**
+     * @param name the queue name
+     * @return the cached queue, or null
+     */
+    public Queue getQueue(String name) {
+        return (Queue) get("queue:" + name);
+    }
+
+    /**
+     * @param name  the queue name
+     * @param queue the queue
+     */
+    public void putQueue(String name, Queue queue) {
+        put("queue:" + name, queue);
+    }
+
+    /**
+     * @param name the topic name
+     * @return the cached topic, or null
+     */
+    public Topic getTopic(String name) {
+        return (Topic) get("topic:" + name);
+    }
+
+    /**
+     * @param name  the topic name
+     * @param topic the topic
+     */
+    public void putTopic(String name, Topic topic) {
+        put("topic:" + name, topic);
+    }
+
+    /**
+     * @return the number of cached destinations
+     */
+    public synchronized int size() {
+        return destinations.size();
+    }
+
+    /**
+     * Remove all the destinations
+     */
+    public synchronized void clear() {
+        destinations.clear();
+    }
+
+    private Destination get(String key) {
+        Destination destination;
+        synchronized (this) {
+            destination = destinations.get(key);
+        }
+        if (destination != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return destination;
+    }
+
+    private synchronized void put(String key, Destination destination) {
+        destinations.put(key, destination);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded set of 64 bit fingerprints with the time each was added, kept
+ * off the heap in a direct buffer so that a large cache adds nothing to the
+ * garbage collection work.
+ * <p>
+ * The buffer is split in sets of 4 slots of 16 bytes, the fingerprint followed
+ * by the time it was added. A fingerprint can only be stored in the set chosen
+ * by its hash, replacing the oldest fingerprint of the set when it is full.
+ * Sets are locked by stripe.
+ */
+public class FingerprintCache {
+
+    private static final int WAYS = 4;
+
+    private static final int SLOT_SIZE = 16;
+
+    private static final int STRIPES = 64;
+
+    private final ByteBuffer slots;
+
+    private final int setMask;
+
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Create a new cache
+     *
+     * @param capacity the number of fingerprints kept, rounded up to a power of 2
+     */
+    public FingerprintCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS) - 1) << 1;
+        sets = Math.max(1, sets);
+        this.setMask = sets - 1;
+        this.slots = ByteBuffer.allocateDirect(sets * WAYS * SLOT_SIZE);
+        for (int i = 0; i < STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the number of fingerprints kept
+     */
+    public int getCapacity() {
+        return (setMask + 1) * WAYS;
+    }
+
+    /**
+     * Compute the fingerprint of a key, never 0 which marks an empty slot
+     *
+     * @param key the key
+     * @return the fingerprint
+     */
+    public static long fingerprint(String key) {
+        // FNV-1a followed by the murmur3 finalizer
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * @param fingerprint the fingerprint
+     * @param notBefore   the time before which fingerprints are ignored
+     * @return whether the fingerprint was added at or after the given time
+     */
+    public boolean contains(long fingerprint, long notBefore) {
+        int set = (int) fingerprint & setMask;
+        int base = set * WAYS * SLOT_SIZE;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int i = 0; i < WAYS; ++i) {
+                int slot = base + i * SLOT_SIZE;
+                if (slots.getLong(slot) == fingerprint) {
+                    return slots.getLong(slot + 8) >= notBefore;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a fingerprint, or refresh its time when it is already there
+     *
+     * @param fingerprint the fingerprint
+     * @param time        the time
+     */
+    public void add(long fingerprint, long time) {
+        int set = (int) fingerprint & setMask;
+        int base = set * WAYS * SLOT_SIZE;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int oldest = base;
+            long oldestTime = Long.MAX_VALUE;
+            for (int i = 0; i < WAYS; ++i) {
+                int slot = base + i * SLOT_SIZE;
+                long current = slots.getLong(slot);
+                if (current == fingerprint || current == 0) {
+                    oldest = slot;
+                    break;
+                }
+                long added = slots.getLong(slot + 8);
+                if (added < oldestTime) {
+                    oldestTime = added;
+                    oldest = slot;
+                }
+            }
+            slots.putLong(oldest, fingerprint);
+            slots.putLong(oldest + 8, time);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+
+import org.jboss.logging.Logger;
+import org.jboss.resource.adapter.jms.inflow.JmsActivation;
+
+/**
+ * Cache of the connection factories and destinations looked up in JNDI,
+ * keyed by the JNDI parameters and the name. Each resource adapter instance
+ * owns one cache, shared by its activations and connection factories.
+ * <p>
+ * One naming context is kept per set of JNDI parameters and reused for all
+ * lookups. Entries expire after the cache timeout and are invalidated when a
+ * connection created from them fails. A timeout of 0 disables the cache and
+ * every lookup uses a new context, closed afterwards.
+ * <p>
+ * Callers set the thread context class loader as for any other lookup.
+ */
+public class JndiCache {
+
+    private static final Logger log = Logger.getLogger(JndiCache.class);
+
+    /**
+     * The cache timeout in milliseconds
+     */
+    private volatile long timeout = 60000;
+
+    /**
+     * The naming contexts by JNDI parameters
+     */
+    private final ConcurrentHashMap<String, Context> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * The looked up objects
+     */
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @return the cache timeout in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the cache timeout in milliseconds, 0 disables the cache
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+        if (timeout <= 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Lookup an object, from the cache when it has not expired
+     *
+     * @param jndiParameters the semicolon-separated JNDI parameters, may be null
+     * @param name           the name
+     * @return the object
+     * @throws NamingException for any error
+     */
+    public Object lookup(String jndiParameters, String name) throws NamingException {
+        if (timeout <= 0) {
+            Context ctx = JmsActivation.convertStringToContext(jndiParameters);
+            try {
+                return ctx.lookup(name);
+            } finally {
+                ctx.close();
+            }
+        }
+
+        Key key = new Key(jndiParameters, name);
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires > now) {
+            return entry.value;
+        }
+
+        Object value;
+        Context ctx = getContext(key.jndiParameters);
+        try {
+            synchronized (ctx) {
+                value = ctx.lookup(name);
+            }
+        } catch (NamingException e) {
+            // The context may be stale, retry once with a new one
+            log.debug("Lookup of " + name + " failed, retrying with a new context", e);
+            closeContext(key.jndiParameters, ctx);
+            ctx = getContext(key.jndiParameters);
+            synchronized (ctx) {
+                value = ctx.lookup(name);
+            }
+        }
+
+        entries.put(key, new Entry(value, now + timeout));
+        if (log.isTraceEnabled()) {
+            log.trace("Cached " + value + " from " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Remove an object from the cache, for example when a connection created from it failed
+     *
+     * @param jndiParameters the semicolon-separated JNDI parameters, may be null
+     * @param name           the name
+     */
+    public void invalidate(String jndiParameters, String name) {
+        if (name != null && entries.remove(new Key(jndiParameters, name)) != null) {
+            log.debug("Invalidated cached lookup of " + name);
+        }
+    }
+
+    /**
+     * Remove all the objects and close the contexts
+     */
+    public void clear() {
+        entries.clear();
+        for (Iterator<java.util.Map.Entry<String, Context>> i = contexts.entrySet().iterator(); i.hasNext(); ) {
+            java.util.Map.Entry<String, Context> entry = i.next();
+            i.remove();
+            close(entry.getValue());
+        }
+    }
+
+    private Context getContext(String jndiParameters) throws NamingException {
+        Context ctx = contexts.get(jndiParameters);
+        if (ctx == null) {
+            Context created = JmsActivation.convertStringToContext(jndiParameters.isEmpty() ? null : jndiParameters);
+            ctx = contexts.putIfAbsent(jndiParameters, created);
+            if (ctx == null) {
+                ctx = created;
+            } else {
+                close(created);
+            }
+        }
+        return ctx;
+    }
+
+    private void closeContext(String jndiParameters, Context ctx) {
+        if (contexts.remove(jndiParameters, ctx)) {
+            close(ctx);
+        }
+    }
+
+    private void close(Context ctx) {
+        try {
+            ctx.close();
+        } catch (NamingException e) {
+            log.trace("Ignored error closing context", e);
+        }
+    }
+
+    private static class Key {
+        final String jndiParameters;
+        final String name;
+
+        Key(String jndiParameters, String name) {
+            this.jndiParameters = jndiParameters == null ? "" : jndiParameters;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key you = (Key) obj;
+            return jndiParameters.equals(you.jndiParameters) && name.equals(you.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * jndiParameters.hashCode() + name.hashCode();
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final long expires;
+
+        Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power of two buckets in microseconds.
+ * Recording does not allocate so it can stay enabled in production,
+ * percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bucket 0 counts 0, bucket n counts [2^(n-1), 2^n - 1] microseconds, the last one everything above
+     */
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in microseconds
+     */
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * @return the maximum latency in microseconds
+     */
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * @return the median latency in microseconds
+     */
+    public long getMedianMicros() {
+        return getPercentileMicros(0.5);
+    }
+
+    /**
+     * @return the 90th percentile latency in microseconds
+     */
+    public long getP90Micros() {
+        return getPercentileMicros(0.9);
+    }
+
+    /**
+     * @return the 99th percentile latency in microseconds
+     */
+    public long getP99Micros() {
+        return getPercentileMicros(0.99);
+    }
+
+    /**
+     * @return the bucket counts, bucket n counts latencies below 2^n microseconds that are not in a lower bucket
+     */
+    public long[] getBuckets() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 1
+     * @return the upper bound in microseconds of the bucket holding the percentile
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = getBuckets();
+        long n = 0;
+        for (long bucket : snapshot) {
+            n += bucket;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min((1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", meanMicros=" + getMeanMicros()
+                + ", p99Micros=" + getP99Micros() + ", maxMicros=" + getMaxMicros() + '}';
+    }
+}
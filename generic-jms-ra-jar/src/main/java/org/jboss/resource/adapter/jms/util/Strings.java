@@ -21,6 +21,14 @@
  */
 package org.jboss.resource.adapter.jms.util;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
 public class Strings {
 
     public static boolean compare(final String me, final String you) {
@@ -46,7 +54,7 @@ public class Strings {
             return false;
         }
         // me will not be null, test for equality
-        return new String(me).equals(new String(you));
+        return Arrays.equals(me, you);
     }
 
     public static char[] toCharArray(final String string) {
@@ -62,4 +70,28 @@ public class Strings {
         }
         return new String(array);
     }
+
+    /**
+     * Digest a secret, so that it can be compared without being kept
+     *
+     * @param secret the secret, may be null
+     * @return the SHA-256 digest of the secret in base 64, or null
+     */
+    public static String digest(final char[] secret) {
+        if (secret == null) {
+            return null;
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(secret));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes);
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (bytes.hasArray()) {
+                Arrays.fill(bytes.array(), (byte) 0);
+            }
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Session;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.security.PasswordCredential;
+import javax.security.auth.Subject;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JmsManagedConnectionFactoryTestCase {
+
+    private final Set<ManagedConnection> created = new HashSet<>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        MockJms.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ManagedConnection mc : created) {
+            mc.destroy();
+        }
+    }
+
+    @Test
+    public void testMatchByRequestInfo() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        ManagedConnection auto = create(mcf, createInfo(Session.AUTO_ACKNOWLEDGE));
+        ManagedConnection dups = create(mcf, createInfo(Session.DUPS_OK_ACKNOWLEDGE));
+        Set<ManagedConnection> pool = new HashSet<>(created);
+
+        assertSame(auto, mcf.matchManagedConnections(pool, null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+        assertSame(dups, mcf.matchManagedConnections(pool, null, createInfo(Session.DUPS_OK_ACKNOWLEDGE)));
+        assertNull(mcf.matchManagedConnections(pool, null, createInfo(Session.CLIENT_ACKNOWLEDGE)));
+    }
+
+    @Test
+    public void testOnlyCandidatesMatch() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        ManagedConnection first = create(mcf, createInfo(Session.AUTO_ACKNOWLEDGE));
+        ManagedConnection second = create(mcf, createInfo(Session.AUTO_ACKNOWLEDGE));
+
+        assertSame(second, mcf.matchManagedConnections(Collections.singleton(second), null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+        assertSame(first, mcf.matchManagedConnections(Collections.singleton(first), null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+        assertNull(mcf.matchManagedConnections(Collections.emptySet(), null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+    }
+
+    @Test
+    public void testDestroyedConnectionsAreNotIndexed() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        ManagedConnection mc = create(mcf, createInfo(Session.AUTO_ACKNOWLEDGE));
+        mc.destroy();
+        assertNull(mcf.matchManagedConnections(Collections.singleton(mc), null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+    }
+
+    @Test
+    public void testMatchConnectionOfEqualFactory() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        JmsManagedConnectionFactory other = createFactory();
+        ManagedConnection mc = create(other, createInfo(Session.AUTO_ACKNOWLEDGE));
+        assertSame(mc, mcf.matchManagedConnections(Collections.singleton(mc), null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+        assertNull(mcf.matchManagedConnections(Collections.singleton(mc), null, createInfo(Session.DUPS_OK_ACKNOWLEDGE)));
+    }
+
+    @Test
+    public void testSerializedWithoutItsConnections() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        mcf.setSessionsPerConnection(2);
+        create(mcf, createInfo(Session.AUTO_ACKNOWLEDGE));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mcf);
+        }
+        JmsManagedConnectionFactory copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (JmsManagedConnectionFactory) in.readObject();
+        }
+
+        ManagedConnection mc = create(copy, createInfo(Session.AUTO_ACKNOWLEDGE));
+        assertNotNull(mc);
+        assertSame(mc, copy.matchManagedConnections(Collections.singleton(mc), null, createInfo(Session.AUTO_ACKNOWLEDGE)));
+    }
+
+    @Test
+    public void testSubjectCredentialsAreCached() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        Subject subject = new Subject();
+        subject.getPrivateCredentials().add(createCredential(mcf, "guest", "secret"));
+
+        JmsCred cred = JmsCred.getJmsCred(mcf, subject, null);
+        assertEquals("guest", cred.name);
+        assertArrayEquals("secret".toCharArray(), cred.pwd);
+        assertSame(cred, JmsCred.getJmsCred(mcf, subject, null));
+        // Another subject with the same credentials is resolved on its own
+        Subject other = new Subject();
+        other.getPrivateCredentials().addAll(subject.getPrivateCredentials());
+        assertNotSame(cred, JmsCred.getJmsCred(mcf, other, null));
+    }
+
+    @Test
+    public void testChangedSubjectCredentialsAreResolvedAgain() throws Exception {
+        JmsManagedConnectionFactory mcf = createFactory();
+        Subject subject = new Subject();
+        PasswordCredential credential = createCredential(mcf, "guest", "secret");
+        subject.getPrivateCredentials().add(credential);
+        JmsCred cred = JmsCred.getJmsCred(mcf, subject, null);
+
+        subject.getPrivateCredentials().remove(credential);
+        subject.getPrivateCredentials().add(createCredential(mcf, "guest", "changed"));
+        JmsCred changed = JmsCred.getJmsCred(mcf, subject, null);
+        assertNotSame(cred, changed);
+        assertArrayEquals("changed".toCharArray(), changed.pwd);
+        assertSame(changed, JmsCred.getJmsCred(mcf, subject, null));
+    }
+
+    private static PasswordCredential createCredential(JmsManagedConnectionFactory mcf, String user, String password) {
+        PasswordCredential credential = new PasswordCredential(user, password.toCharArray());
+        credential.setManagedConnectionFactory(mcf);
+        return credential;
+    }
+
+    private static JmsManagedConnectionFactory createFactory() {
+        JmsManagedConnectionFactory mcf = new JmsManagedConnectionFactory();
+        mcf.setConnectionFactory("ConnectionFactory");
+        return mcf;
+    }
+
+    private static JmsConnectionRequestInfo createInfo(int acknowledgeMode) {
+        return new JmsConnectionRequestInfo(false, acknowledgeMode, JmsConnectionFactory.AGNOSTIC);
+    }
+
+    private ManagedConnection create(JmsManagedConnectionFactory mcf, JmsConnectionRequestInfo info) throws Exception {
+        ManagedConnection mc = mcf.createManagedConnection(null, info);
+        created.add(mc);
+        return mc;
+    }
+}
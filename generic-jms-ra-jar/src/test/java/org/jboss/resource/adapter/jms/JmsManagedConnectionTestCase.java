@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.jms.Destination;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueSender;
+import javax.jms.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JmsManagedConnectionTestCase {
+
+    private final JmsManagedConnectionFactory mcf = new JmsManagedConnectionFactory();
+
+    private JmsManagedConnection mc;
+
+    @BeforeClass
+    public static void setUpClass() {
+        MockJms.install();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mcf.setConnectionFactory("ConnectionFactory");
+        mcf.setProducerCacheSize(2);
+        mc = (JmsManagedConnection) mcf.createManagedConnection(null,
+                new JmsConnectionRequestInfo(false, Session.AUTO_ACKNOWLEDGE, JmsConnectionFactory.AGNOSTIC));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mc != null) {
+            mc.destroy();
+        }
+    }
+
+    @Test
+    public void testProducerCache() {
+        Destination queue = MockJms.create(Queue.class);
+        MessageProducer producer = MockJms.create(MessageProducer.class);
+        assertNull(mc.takeProducer(queue, MessageProducer.class));
+
+        assertTrue(mc.returnProducer(queue, producer));
+        // A producer of another type is not reused
+        assertNull(mc.takeProducer(queue, QueueSender.class));
+        assertNull(mc.takeProducer(MockJms.create(Queue.class), MessageProducer.class));
+        assertSame(producer, mc.takeProducer(queue, MessageProducer.class));
+        assertNull(mc.takeProducer(queue, MessageProducer.class));
+        assertFalse(MockJms.isClosed(producer));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        Destination a = MockJms.create(Queue.class);
+        Destination b = MockJms.create(Queue.class);
+        Destination c = MockJms.create(Queue.class);
+        MessageProducer producerA = MockJms.create(MessageProducer.class);
+        MessageProducer producerB = MockJms.create(MessageProducer.class);
+        MessageProducer producerC = MockJms.create(MessageProducer.class);
+        mc.returnProducer(a, producerA);
+        mc.returnProducer(b, producerB);
+
+        // Reusing the producer of a makes the one of b the least recently used
+        assertSame(producerA, mc.takeProducer(a, MessageProducer.class));
+        mc.returnProducer(a, producerA);
+        mc.returnProducer(c, producerC);
+        assertTrue(MockJms.isClosed(producerB));
+        assertFalse(MockJms.isClosed(producerA));
+        assertFalse(MockJms.isClosed(producerC));
+        assertNull(mc.takeProducer(b, MessageProducer.class));
+        assertSame(producerA, mc.takeProducer(a, MessageProducer.class));
+        assertSame(producerC, mc.takeProducer(c, MessageProducer.class));
+    }
+
+    @Test
+    public void testReplacedProducerIsClosed() {
+        Destination queue = MockJms.create(Queue.class);
+        MessageProducer first = MockJms.create(MessageProducer.class);
+        MessageProducer second = MockJms.create(MessageProducer.class);
+        mc.returnProducer(queue, first);
+        mc.returnProducer(queue, second);
+        assertTrue(MockJms.isClosed(first));
+        assertSame(second, mc.takeProducer(queue, MessageProducer.class));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        mcf.setProducerCacheSize(0);
+        assertFalse(mc.returnProducer(MockJms.create(Queue.class), MockJms.create(MessageProducer.class)));
+    }
+
+    @Test
+    public void testDestroyClosesCachedProducers() throws Exception {
+        MessageProducer producer = MockJms.create(MessageProducer.class);
+        mc.returnProducer(MockJms.create(Queue.class), producer);
+        mc.destroy();
+        assertTrue(MockJms.isClosed(producer));
+        assertFalse(mc.returnProducer(MockJms.create(Queue.class), MockJms.create(MessageProducer.class)));
+    }
+}
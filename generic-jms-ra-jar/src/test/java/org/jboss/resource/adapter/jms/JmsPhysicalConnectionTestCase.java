@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JmsPhysicalConnectionTestCase {
+
+    private final JmsManagedConnectionFactory mcf = new JmsManagedConnectionFactory();
+
+    private final ConnectionFactory factory = MockJms.create(ConnectionFactory.class);
+
+    private JmsManagedConnection first;
+
+    private JmsManagedConnection second;
+
+    @BeforeClass
+    public static void setUpClass() {
+        MockJms.install();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mcf.setConnectionFactory("ConnectionFactory");
+        mcf.setSessionsPerConnection(2);
+        first = create();
+        second = create();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        first.destroy();
+        second.destroy();
+    }
+
+    @Test
+    public void testOpenedOnce() throws Exception {
+        JmsPhysicalConnection physical = new JmsPhysicalConnection("key");
+        Connection connection = physical.getConnection(first, factory, null, null, false, Session.AUTO_ACKNOWLEDGE);
+        assertSame(connection, physical.getConnection(second, factory, null, null, false, Session.AUTO_ACKNOWLEDGE));
+        assertEquals(1, MockJms.getCalls(factory, "createConnection"));
+    }
+
+    @Test
+    public void testStoppedOnceNoManagedConnectionHasItStarted() throws Exception {
+        JmsPhysicalConnection physical = new JmsPhysicalConnection("key");
+        physical.getConnection(first, factory, null, null, false, Session.AUTO_ACKNOWLEDGE);
+        physical.getConnection(second, factory, null, null, false, Session.AUTO_ACKNOWLEDGE);
+        Connection connection = getProviderConnection();
+
+        physical.start(first);
+        physical.start(first);
+        physical.start(second);
+        assertEquals(1, MockJms.getCalls(connection, "start"));
+
+        // Stopping twice for the same managed connection does not stop the other one
+        physical.stop(first);
+        physical.stop(first);
+        assertEquals(0, MockJms.getCalls(connection, "stop"));
+        physical.removeListener(second);
+        assertEquals(1, MockJms.getCalls(connection, "stop"));
+
+        physical.start(second);
+        assertEquals(2, MockJms.getCalls(connection, "start"));
+    }
+
+    @Test
+    public void testClosedWithTheLastReference() throws Exception {
+        String key = JmsPhysicalConnection.getKey("guest", "secret", null);
+        JmsPhysicalConnection physical = mcf.acquirePhysicalConnection(key);
+        assertSame(physical, mcf.acquirePhysicalConnection(key));
+        // Full, the next managed connection gets a connection of its own
+        JmsPhysicalConnection full = mcf.acquirePhysicalConnection(key);
+        assertNotSame(physical, full);
+        assertNotSame(physical, mcf.acquirePhysicalConnection(JmsPhysicalConnection.getKey("guest", "other", null)));
+
+        physical.getConnection(first, factory, null, null, false, Session.AUTO_ACKNOWLEDGE);
+        Connection connection = getProviderConnection();
+        mcf.releasePhysicalConnection(physical);
+        assertFalse(MockJms.isClosed(connection));
+        mcf.releasePhysicalConnection(physical);
+        assertTrue(MockJms.isClosed(connection));
+
+        // The released connection is not handed out again
+        assertSame(full, mcf.acquirePhysicalConnection(key));
+    }
+
+    private Connection getProviderConnection() {
+        return (Connection) MockJms.getResult(factory, "createConnection");
+    }
+
+    private JmsManagedConnection create() throws Exception {
+        return (JmsManagedConnection) mcf.createManagedConnection(null,
+                new JmsConnectionRequestInfo(false, Session.AUTO_ACKNOWLEDGE, JmsConnectionFactory.AGNOSTIC));
+    }
+}
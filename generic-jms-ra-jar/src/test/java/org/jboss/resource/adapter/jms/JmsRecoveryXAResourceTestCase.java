@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import javax.resource.spi.ActivationSpec;
+import javax.resource.spi.BootstrapContext;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.jboss.resource.adapter.jms.inflow.JmsActivationSpec;
+import org.jboss.resource.adapter.jms.util.JndiCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JmsRecoveryXAResourceTestCase {
+
+    private final JmsResourceAdapter ra = new JmsResourceAdapter();
+
+    @BeforeClass
+    public static void setUpClass() {
+        MockJms.install();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ra.start(MockJms.create(BootstrapContext.class));
+    }
+
+    @After
+    public void tearDown() {
+        ra.stop();
+    }
+
+    @Test
+    public void testSpecsWithTheSameCredentialsShareAResource() throws Exception {
+        JmsActivationSpec first = createSpec("XAConnectionFactory", "guest", "secret");
+        JmsActivationSpec second = createSpec("XAConnectionFactory", "guest", "secret");
+        JmsActivationSpec otherPassword = createSpec("XAConnectionFactory", "guest", "other");
+
+        XAResource[] resources = ra.getXAResources(new ActivationSpec[]{first, second, otherPassword});
+        assertEquals(2, resources.length);
+        assertNotSame(resources[0], resources[1]);
+
+        // Later scans get the same resources and their open connections
+        assertSame(resources[0], ra.getXAResources(new ActivationSpec[]{second})[0]);
+        assertSame(resources[1], ra.getXAResources(new ActivationSpec[]{otherPassword})[0]);
+    }
+
+    @Test
+    public void testSpecsWithoutConnectionFactoryAreIgnored() throws Exception {
+        assertNull(ra.getXAResources(null));
+        JmsActivationSpec spec = createSpec(null, null, null);
+        assertEquals(0, ra.getXAResources(new ActivationSpec[]{spec, MockJms.create(ActivationSpec.class)}).length);
+    }
+
+    @Test
+    public void testConnectionStaysOpenAcrossAScan() throws Exception {
+        JmsRecoveryXAResource resource = new JmsRecoveryXAResource(createSpec("XAConnectionFactory", null, null), new JndiCache());
+        assertNull(resource.getUnderlyingXAResource());
+
+        resource.recover(XAResource.TMSTARTRSCAN);
+        XAResource underlying = resource.getUnderlyingXAResource();
+        assertNotNull(underlying);
+        resource.recover(XAResource.TMENDRSCAN);
+        resource.commit(MockJms.create(Xid.class), false);
+        assertSame(underlying, resource.getUnderlyingXAResource());
+        assertEquals(2, MockJms.getCalls(underlying, "recover"));
+        assertEquals(1, MockJms.getCalls(underlying, "commit"));
+
+        // Only an idle connection is closed
+        resource.closeIfIdle(60000);
+        assertSame(underlying, resource.getUnderlyingXAResource());
+        resource.closeIfIdle(0);
+        assertNull(resource.getUnderlyingXAResource());
+    }
+
+    @Test
+    public void testNothingToRecoverWithoutXA() throws Exception {
+        JmsRecoveryXAResource resource = new JmsRecoveryXAResource(createSpec("ConnectionFactory", null, null), new JndiCache());
+        assertEquals(0, resource.recover(XAResource.TMSTARTRSCAN | XAResource.TMENDRSCAN).length);
+        try {
+            resource.commit(MockJms.create(Xid.class), false);
+            fail("A connection factory without XA cannot commit");
+        } catch (XAException e) {
+            assertEquals(XAException.XAER_RMERR, e.errorCode);
+        }
+    }
+
+    private static JmsActivationSpec createSpec(String connectionFactory, String user, String password) {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setConnectionFactory(connectionFactory);
+        spec.setUser(user);
+        spec.setPassword(password);
+        return spec;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.XAConnectionFactory;
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import javax.resource.spi.work.Work;
+import javax.transaction.Status;
+import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * A JMS provider doing nothing, bound in a JNDI context of its own along with
+ * a transaction manager and a transaction synchronization registry without
+ * transaction. Names starting with XA are bound to an XAConnectionFactory, the
+ * others to a ConnectionFactory. Every method returning an interface returns a
+ * new mock of that interface, and the mocks count the calls of each method.
+ * Work is run at once by the thread scheduling it.
+ */
+public class MockJms implements InitialContextFactory {
+
+    /**
+     * Make the mock context the default initial context
+     */
+    public static void install() {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, MockJms.class.getName());
+    }
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment) {
+        return create(Context.class);
+    }
+
+    /**
+     * Create a mock
+     *
+     * @param type the interface
+     * @param <T>  the interface
+     * @return the mock
+     */
+    public static <T> T create(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(MockJms.class.getClassLoader(), new Class<?>[]{type}, new Handler()));
+    }
+
+    /**
+     * @param mock   the mock
+     * @param method the method name
+     * @return the number of calls of the method
+     */
+    public static int getCalls(Object mock, String method) {
+        AtomicInteger calls = getHandler(mock).calls.get(method);
+        return calls == null ? 0 : calls.get();
+    }
+
+    /**
+     * @param mock the mock
+     * @return whether the mock was closed
+     */
+    public static boolean isClosed(Object mock) {
+        return getCalls(mock, "close") > 0;
+    }
+
+    /**
+     * @param mock   the mock
+     * @param method the method name
+     * @return what the last call of the method returned, or null
+     */
+    public static Object getResult(Object mock, String method) {
+        return getHandler(mock).results.get(method);
+    }
+
+    /**
+     * Make a method of a mock throw
+     *
+     * @param mock    the mock
+     * @param method  the method name
+     * @param failure the exception thrown by the next calls, null to stop failing
+     */
+    public static void fail(Object mock, String method, Exception failure) {
+        if (failure == null) {
+            getHandler(mock).failures.remove(method);
+        } else {
+            getHandler(mock).failures.put(method, failure);
+        }
+    }
+
+    private static Handler getHandler(Object mock) {
+        return (Handler) Proxy.getInvocationHandler(mock);
+    }
+
+    private static class Handler implements InvocationHandler {
+        private final ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+        private final ConcurrentHashMap<String, Object> results = new ConcurrentHashMap<>();
+
+        private final ConcurrentHashMap<String, Exception> failures = new ConcurrentHashMap<>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+            String name = method.getName();
+            if (name.equals("equals") && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && args == null) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString") && args == null) {
+                return "Mock" + proxy.getClass().getInterfaces()[0].getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+            AtomicInteger count = calls.get(name);
+            if (count == null) {
+                calls.putIfAbsent(name, new AtomicInteger());
+                count = calls.get(name);
+            }
+            count.incrementAndGet();
+            Exception failure = failures.get(name);
+            if (failure != null) {
+                throw failure;
+            }
+            Object result = answer(method, args);
+            if (result != null) {
+                results.put(name, result);
+            }
+            return result;
+        }
+
+        private Object answer(Method method, Object[] args) {
+            String name = method.getName();
+            Class<?> type = method.getReturnType();
+            if (name.equals("lookup")) {
+                String lookup = String.valueOf(args[0]);
+                if (lookup.endsWith("TransactionSynchronizationRegistry")) {
+                    return create(TransactionSynchronizationRegistry.class);
+                } else if (lookup.endsWith("TransactionManager")) {
+                    return create(TransactionManager.class);
+                }
+                return lookup.startsWith("XA") ? create(XAConnectionFactory.class) : create(ConnectionFactory.class);
+            } else if (name.equals("getTransactionStatus")) {
+                return Status.STATUS_NO_TRANSACTION;
+            } else if (name.endsWith("Work") && args != null && args[0] instanceof Work) {
+                ((Work) args[0]).run();
+                return type == long.class ? 0L : null;
+            } else if (type == Timer.class) {
+                return new Timer(true);
+            } else if (type.isInterface()) {
+                return create(type);
+            } else if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class JmsAdaptiveConcurrencyTestCase {
+
+    private final JmsServerSessionPool pool = new JmsServerSessionPool(null, null, 0, 1);
+
+    private final List<Thread> waiters = new ArrayList<>();
+
+    private JmsAdaptiveConcurrency concurrency;
+
+    @After
+    public void tearDown() throws Exception {
+        if (concurrency != null) {
+            concurrency.stop();
+        }
+        for (Thread waiter : waiters) {
+            waiter.join(5000);
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        assertEquals(1, new JmsAdaptiveConcurrency(pool, 0, 10).getLimit());
+        assertEquals(4, new JmsAdaptiveConcurrency(pool, 4, 10).getLimit());
+        assertEquals(2, new JmsAdaptiveConcurrency(pool, 5, 2).getLimit());
+    }
+
+    @Test
+    public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+        concurrency = new JmsAdaptiveConcurrency(pool, 1, 16);
+        concurrency.acquire();
+
+        // Slow start doubles the limit while sessions wait
+        Thread waiter = waitForPermit();
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        concurrency.adjust();
+        assertEquals(2, concurrency.getLimit());
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+
+        waiter = waitForPermit();
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        concurrency.adjust();
+        assertEquals(4, concurrency.getLimit());
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+
+        // A listener more than twice as slow as the baseline shrinks the limit by a quarter
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+        concurrency.adjust();
+        assertEquals(3, concurrency.getLimit());
+
+        // After that the limit grows by one session per period
+        waiter = waitForPermit();
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        concurrency.adjust();
+        assertEquals(4, concurrency.getLimit());
+        assertEquals(1, concurrency.getThroughput());
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+
+        // Nothing changes without deliveries
+        waiter = waitForPermit();
+        concurrency.adjust();
+        assertEquals(4, concurrency.getLimit());
+        assertEquals(0, concurrency.getThroughput());
+        assertTrue(waiter.isAlive());
+    }
+
+    @Test
+    public void testMaximumLimit() throws Exception {
+        concurrency = new JmsAdaptiveConcurrency(pool, 2, 3);
+        concurrency.acquire();
+        concurrency.acquire();
+        waitForPermit();
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        concurrency.adjust();
+        assertEquals(3, concurrency.getLimit());
+    }
+
+    @Test
+    public void testPollersDoNotCountAsDemand() throws Exception {
+        concurrency = new JmsAdaptiveConcurrency(pool, 1, 16);
+        assertTrue(concurrency.acquirePoller(0));
+        assertFalse(concurrency.acquirePoller(0));
+        assertFalse(concurrency.acquirePoller(50));
+
+        // A polled message with no session waiting is no reason to grow
+        concurrency.recordPolledMessage();
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        concurrency.adjust();
+        assertEquals(1, concurrency.getLimit());
+
+        // It is once another session waits for a permit
+        waitForPermit();
+        concurrency.recordPolledMessage();
+        concurrency.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        concurrency.adjust();
+        assertEquals(2, concurrency.getLimit());
+    }
+
+    /**
+     * Start a thread waiting for a permit
+     *
+     * @return the thread, once it waits
+     * @throws Exception for any error
+     */
+    private Thread waitForPermit() throws Exception {
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    concurrency.acquire();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        waiter.setDaemon(true);
+        waiter.start();
+        waiters.add(waiter);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (waiter.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, waiter.getState());
+        return waiter;
+    }
+}
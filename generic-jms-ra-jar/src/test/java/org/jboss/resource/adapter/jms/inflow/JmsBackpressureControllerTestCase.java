@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class JmsBackpressureControllerTestCase {
+
+    private final JmsServerSessionPool pool = new JmsServerSessionPool(null, null, 0, 1);
+
+    @Test
+    public void testEnabled() {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        assertFalse(JmsBackpressureController.isEnabled(spec));
+        spec.setMaxDeliveryRate(10);
+        assertTrue(JmsBackpressureController.isEnabled(spec));
+    }
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setMaxDeliveryRate(100);
+        JmsBackpressureController controller = new JmsBackpressureController(spec);
+
+        // The bucket starts full
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; ++i) {
+            controller.acquire(pool);
+        }
+        long burst = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("A full bucket took " + burst + "ms", burst < 500);
+
+        // Then permits come at the refill rate
+        start = System.nanoTime();
+        for (int i = 0; i < 20; ++i) {
+            controller.acquire(pool);
+        }
+        long refill = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("20 permits at 100/s took " + refill + "ms", refill >= 150);
+    }
+
+    @Test
+    public void testAwaitResumeTakesNoPermit() throws Exception {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setMaxDeliveryRate(1);
+        JmsBackpressureController controller = new JmsBackpressureController(spec);
+
+        for (int i = 0; i < 10; ++i) {
+            controller.awaitResume(pool);
+        }
+        long start = System.nanoTime();
+        controller.acquire(pool);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    }
+
+    @Test
+    public void testLatencyPause() throws Exception {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setMaxDeliveryLatency(10);
+        JmsBackpressureController controller = new JmsBackpressureController(spec);
+
+        for (int i = 0; i < 100; ++i) {
+            controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        controller.evaluate();
+        assertTrue(controller.isPaused());
+        assertEquals(1, controller.getPauseCount());
+
+        // Without deliveries the average halves at each evaluation, 25, 12.5 then 6.25ms
+        controller.evaluate();
+        assertTrue(controller.isPaused());
+        controller.evaluate();
+        assertTrue(controller.isPaused());
+        controller.evaluate();
+        assertFalse(controller.isPaused());
+        assertEquals(1, controller.getPauseCount());
+    }
+
+    @Test
+    public void testStopReleasesWaitingSessions() throws Exception {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setMaxDeliveryLatency(10);
+        final JmsBackpressureController controller = new JmsBackpressureController(spec);
+        for (int i = 0; i < 100; ++i) {
+            controller.recordLatency(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        controller.evaluate();
+        assertTrue(controller.isPaused());
+
+        final CountDownLatch released = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    controller.acquire(pool);
+                    released.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        waiter.start();
+        assertFalse(released.await(200, TimeUnit.MILLISECONDS));
+        controller.stop();
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHeapOccupancy() {
+        double occupancy = JmsBackpressureController.getHeapOccupancy();
+        assertTrue(occupancy >= 0 && occupancy <= 1);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JmsPoisonMessageTrackerTestCase {
+
+    private static final long BACKOFF = 100000;
+
+    private final JmsActivationSpec spec = new JmsActivationSpec();
+
+    private JmsPoisonMessageTracker tracker;
+
+    @Before
+    public void setUp() {
+        spec.setPoisonMessageThreshold(3);
+        spec.setPoisonMessageBackoff(BACKOFF);
+        spec.setMaxPoisonMessageBackoff(4 * BACKOFF);
+        tracker = new JmsPoisonMessageTracker(spec);
+    }
+
+    @Test
+    public void testCircuitOpensAtThreshold() {
+        Message message = createMessage("ID:1", 0);
+        tracker.recordFailure(message, new RuntimeException());
+        tracker.recordFailure(message, new RuntimeException());
+        assertFalse(tracker.isOpen(message));
+        assertEquals(0, tracker.getOpenTime(message));
+
+        tracker.recordFailure(message, new RuntimeException());
+        assertTrue(tracker.isOpen(message));
+        assertOpenTime(BACKOFF, tracker.getOpenTime(message));
+        assertFalse(tracker.isOpen(createMessage("ID:2", 0)));
+    }
+
+    @Test
+    public void testBackoffDoubles() {
+        Message message = createMessage("ID:1", 0);
+        for (int i = 0; i < 3; ++i) {
+            tracker.recordFailure(message, new RuntimeException());
+        }
+        assertOpenTime(BACKOFF, tracker.getOpenTime(message));
+
+        // A failed trial opens the circuit for twice as long, up to the maximum
+        tracker.recordFailure(message, new RuntimeException());
+        assertOpenTime(2 * BACKOFF, tracker.getOpenTime(message));
+        tracker.recordFailure(message, new RuntimeException());
+        assertOpenTime(4 * BACKOFF, tracker.getOpenTime(message));
+        tracker.recordFailure(message, new RuntimeException());
+        assertOpenTime(4 * BACKOFF, tracker.getOpenTime(message));
+    }
+
+    @Test
+    public void testDeliveryCount() {
+        // The provider already delivered the message 5 times
+        Message message = createMessage("ID:1", 5);
+        tracker.recordFailure(message, new RuntimeException());
+        assertOpenTime(4 * BACKOFF, tracker.getOpenTime(message));
+    }
+
+    @Test
+    public void testSuccessClosesCircuit() {
+        Message message = createMessage("ID:1", 0);
+        for (int i = 0; i < 3; ++i) {
+            tracker.recordFailure(message, new RuntimeException());
+        }
+        assertTrue(tracker.isOpen(message));
+
+        tracker.recordSuccess(message);
+        assertFalse(tracker.isOpen(message));
+        tracker.recordFailure(message, new RuntimeException());
+        assertFalse(tracker.isOpen(message));
+    }
+
+    @Test
+    public void testCircuitCloses() throws Exception {
+        spec.setPoisonMessageBackoff(1);
+        Message message = createMessage("ID:1", 0);
+        for (int i = 0; i < 3; ++i) {
+            tracker.recordFailure(message, new RuntimeException());
+        }
+        Thread.sleep(20);
+
+        // The next delivery is a trial
+        assertFalse(tracker.isOpen(message));
+        tracker.recordFailure(message, new RuntimeException());
+        assertTrue(tracker.getOpenTime(message) <= 2);
+    }
+
+    @Test
+    public void testMessageWithoutId() {
+        Message message = createMessage(null, 10);
+        for (int i = 0; i < 3; ++i) {
+            tracker.recordFailure(message, new RuntimeException());
+        }
+        assertFalse(tracker.isOpen(message));
+    }
+
+    private static void assertOpenTime(long expected, long actual) {
+        assertTrue("open for " + actual + "ms, expected " + expected + "ms", actual > expected / 2 && actual <= expected);
+    }
+
+    /**
+     * A message with only an id and a JMSXDeliveryCount, the rest is never read by the tracker
+     */
+    private static Message createMessage(String id, int deliveryCount) {
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("getJMSMessageID", id);
+        answers.put("propertyExists", deliveryCount > 0);
+        answers.put("getIntProperty", deliveryCount);
+        return (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[]{Message.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return answers.get(method.getName());
+            }
+        });
+    }
+}
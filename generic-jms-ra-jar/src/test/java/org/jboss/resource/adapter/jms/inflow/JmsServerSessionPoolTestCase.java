@@ -0,0 +1,269 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ServerSession;
+import javax.resource.spi.BootstrapContext;
+import javax.resource.spi.endpoint.MessageEndpoint;
+import javax.resource.spi.endpoint.MessageEndpointFactory;
+
+import org.jboss.resource.adapter.jms.JmsResourceAdapter;
+import org.jboss.resource.adapter.jms.MockJms;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JmsServerSessionPoolTestCase {
+
+    private final JmsResourceAdapter ra = new JmsResourceAdapter();
+
+    private final JmsActivationSpec spec = new JmsActivationSpec();
+
+    private final Connection connection = MockJms.create(Connection.class);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private JmsServerSessionPool pool;
+
+    @BeforeClass
+    public static void setUpClass() {
+        MockJms.install();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        ra.stop();
+    }
+
+    @Test
+    public void testStartsAtMinSession() throws Exception {
+        startPool(2, 5);
+        assertEquals(2, pool.getSessionCount());
+        assertEquals(2, pool.getIdleSessionCount());
+        assertEquals(2, MockJms.getCalls(connection, "createSession"));
+    }
+
+    @Test
+    public void testGrowsUpToMaxSession() throws Exception {
+        startPool(1, 2);
+        ServerSession first = pool.getServerSession();
+        ServerSession second = pool.getServerSession();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getSessionCount());
+        assertEquals(0, pool.getIdleSessionCount());
+
+        // At the maximum a session waits for one to be returned
+        Future<ServerSession> waiting = getServerSessionLater();
+        assertWaiting(waiting);
+        pool.returnServerSession((JmsServerSession) second);
+        assertSame(second, waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(2, pool.getSessionCount());
+    }
+
+    @Test
+    public void testMostRecentlyReturnedFirst() throws Exception {
+        startPool(2, 2);
+        JmsServerSession first = (JmsServerSession) pool.getServerSession();
+        JmsServerSession second = (JmsServerSession) pool.getServerSession();
+        pool.returnServerSession(first);
+        pool.returnServerSession(second);
+        assertSame(second, pool.getServerSession());
+    }
+
+    @Test
+    public void testShrinksToMinSession() throws Exception {
+        startPool(1, 3);
+        JmsServerSession[] sessions = new JmsServerSession[3];
+        for (int i = 0; i < sessions.length; ++i) {
+            sessions[i] = (JmsServerSession) pool.getServerSession();
+        }
+        for (JmsServerSession session : sessions) {
+            pool.returnServerSession(session);
+        }
+
+        pool.closeIdleSessions(60000);
+        assertEquals(3, pool.getSessionCount());
+
+        // The least recently returned sessions are closed first
+        pool.closeIdleSessions(0);
+        assertEquals(1, pool.getSessionCount());
+        assertEquals(1, pool.getIdleSessionCount());
+        assertSame(sessions[2], pool.getServerSession());
+    }
+
+    @Test
+    public void testWaitsWhenASessionCannotBeAdded() throws Exception {
+        startPool(1, 2);
+        JmsServerSession first = (JmsServerSession) pool.getServerSession();
+
+        // For example the provider limits the number of sessions
+        MockJms.fail(connection, "createSession", new JMSException("Too many sessions"));
+        Future<ServerSession> waiting = getServerSessionLater();
+        assertWaiting(waiting);
+        assertEquals(1, pool.getSessionCount());
+
+        pool.returnServerSession(first);
+        assertSame(first, waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailsWhenNoSessionCanBeSetUp() throws Exception {
+        startPool(0, 2);
+        MockJms.fail(connection, "createSession", new JMSException("Too many sessions"));
+        try {
+            pool.getServerSession();
+            fail("No session will ever be returned");
+        } catch (JMSException expected) {
+        }
+        assertEquals(0, pool.getSessionCount());
+    }
+
+    @Test
+    public void testStopWakesWaiters() throws Exception {
+        startPool(1, 1);
+        final JmsServerSession session = (JmsServerSession) pool.getServerSession();
+        Future<ServerSession> waiting = getServerSessionLater();
+        assertWaiting(waiting);
+
+        // The pool waits for the session in use before it is stopped
+        Future<?> stopping = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                pool.stop();
+            }
+        });
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("The pool is stopped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JMSException);
+        }
+        assertFalse(stopping.isDone());
+        pool.returnServerSession(session);
+        stopping.get(5, TimeUnit.SECONDS);
+        assertEquals(0, pool.getSessionCount());
+        assertTrue(MockJms.isClosed(MockJms.getResult(connection, "createSession")));
+    }
+
+    @Test
+    public void testFailedBatchIsNotAcknowledged() throws Exception {
+        startPool(1, 1, createFailingBatchEndpointFactory());
+        JmsServerSession session = (JmsServerSession) pool.getServerSession();
+        Message failed = MockJms.create(Message.class);
+        Message next = MockJms.create(Message.class);
+        session.onMessage(failed);
+        session.onMessage(next);
+        session.run();
+        pool.returnServerSession(session);
+
+        // Closing the session gives both messages back to the provider
+        assertEquals(0, MockJms.getCalls(failed, "acknowledge"));
+        assertEquals(0, MockJms.getCalls(next, "acknowledge"));
+        assertTrue(MockJms.isClosed(MockJms.getResult(connection, "createSession")));
+        assertEquals(0, pool.getSessionCount());
+        assertNotSame(session, pool.getServerSession());
+    }
+
+    private void startPool(int minSession, int maxSession) throws Exception {
+        startPool(minSession, maxSession, MockJms.create(MessageEndpointFactory.class));
+    }
+
+    private void startPool(int minSession, int maxSession, MessageEndpointFactory endpointFactory) throws Exception {
+        spec.setMinSession(minSession);
+        spec.setMaxSession(maxSession);
+        ra.start(MockJms.create(BootstrapContext.class));
+        JmsActivation activation = new JmsActivation(ra, endpointFactory, spec);
+        pool = new JmsServerSessionPool(activation, connection, 0, 1);
+        pool.setupSessions();
+    }
+
+    private Future<ServerSession> getServerSessionLater() {
+        return executor.submit(new Callable<ServerSession>() {
+            @Override
+            public ServerSession call() throws Exception {
+                return pool.getServerSession();
+            }
+        });
+    }
+
+    private static MessageEndpointFactory createFailingBatchEndpointFactory() {
+        final Object endpoint = Proxy.newProxyInstance(JmsServerSessionPoolTestCase.class.getClassLoader(),
+                new Class<?>[]{BatchEndpoint.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("onMessages")) {
+                            throw new IllegalStateException("Batch failed");
+                        }
+                        return null;
+                    }
+                });
+        return (MessageEndpointFactory) Proxy.newProxyInstance(JmsServerSessionPoolTestCase.class.getClassLoader(),
+                new Class<?>[]{MessageEndpointFactory.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getEndpointClass":
+                                return BatchEndpoint.class;
+                            case "createEndpoint":
+                                return endpoint;
+                            case "isDeliveryTransacted":
+                                return false;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    private static void assertWaiting(Future<ServerSession> waiting) throws Exception {
+        try {
+            waiting.get(200, TimeUnit.MILLISECONDS);
+            fail("A session was handed out");
+        } catch (TimeoutException expected) {
+        }
+    }
+
+    private interface BatchEndpoint extends MessageEndpoint, BatchMessageListener {
+    }
+}
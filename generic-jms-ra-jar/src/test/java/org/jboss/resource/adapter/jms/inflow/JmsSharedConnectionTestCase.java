@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.inflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.jms.JMSException;
+
+import org.jboss.resource.adapter.jms.JmsResourceAdapter;
+import org.junit.Test;
+
+public class JmsSharedConnectionTestCase {
+
+    @Test
+    public void testKeyDependsOnTheCredentials() {
+        String key = JmsSharedConnection.getKey(createSpec("guest", "secret"), false);
+        assertEquals(key, JmsSharedConnection.getKey(createSpec("guest", "secret"), false));
+        assertNotEquals(key, JmsSharedConnection.getKey(createSpec("guest", "other"), false));
+        assertNotEquals(key, JmsSharedConnection.getKey(createSpec("guest", null), false));
+        assertNotEquals(key, JmsSharedConnection.getKey(createSpec("admin", "secret"), false));
+        assertNotEquals(key, JmsSharedConnection.getKey(createSpec("guest", "secret"), true));
+        assertFalse(key.contains("secret"));
+    }
+
+    @Test
+    public void testKeyDependsOnTheConnectionFactory() {
+        JmsActivationSpec spec = createSpec("guest", "secret");
+        String key = JmsSharedConnection.getKey(spec, false);
+        spec.setConnectionFactory("OtherConnectionFactory");
+        assertNotEquals(key, JmsSharedConnection.getKey(spec, false));
+        spec.setConnectionFactory("ConnectionFactory");
+        spec.setJndiParameters("java.naming.provider.url=remote://other");
+        assertNotEquals(key, JmsSharedConnection.getKey(spec, false));
+    }
+
+    @Test
+    public void testRegistrySharesUntilTheLastRelease() {
+        JmsResourceAdapter ra = new JmsResourceAdapter();
+        String key = JmsSharedConnection.getKey(createSpec("guest", "secret"), false);
+        JmsSharedConnection shared = ra.acquireSharedConnection(key);
+        assertSame(shared, ra.acquireSharedConnection(key));
+        assertNotSame(shared, ra.acquireSharedConnection(JmsSharedConnection.getKey(createSpec("guest", "other"), false)));
+
+        ra.releaseSharedConnection(shared);
+        assertSame(shared, ra.acquireSharedConnection(key));
+        ra.releaseSharedConnection(shared);
+        ra.releaseSharedConnection(shared);
+        assertNotSame(shared, ra.acquireSharedConnection(key));
+    }
+
+    @Test
+    public void testFailedConnectionIsReplaced() {
+        JmsResourceAdapter ra = new JmsResourceAdapter();
+        String key = JmsSharedConnection.getKey(createSpec("guest", "secret"), false);
+        JmsSharedConnection shared = ra.acquireSharedConnection(key);
+        shared.onException(new JMSException("Connection lost"));
+        assertTrue(shared.isFailed());
+
+        JmsSharedConnection replacement = ra.acquireSharedConnection(key);
+        assertNotSame(shared, replacement);
+        // Releasing the failed connection leaves its replacement registered
+        ra.releaseSharedConnection(shared);
+        assertSame(replacement, ra.acquireSharedConnection(key));
+    }
+
+    private static JmsActivationSpec createSpec(String user, String password) {
+        JmsActivationSpec spec = new JmsActivationSpec();
+        spec.setConnectionFactory("ConnectionFactory");
+        spec.setUser(user);
+        spec.setPassword(password);
+        return spec;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+import org.jboss.resource.adapter.jms.MockJms;
+import org.junit.Test;
+
+public class DestinationCacheTestCase {
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @Test
+    public void testQueuesAndTopics() {
+        DestinationCache cache = new DestinationCache(10, hits, misses);
+        Queue queue = MockJms.create(Queue.class);
+        Topic topic = MockJms.create(Topic.class);
+        assertNull(cache.getQueue("orders"));
+
+        cache.putQueue("orders", queue);
+        cache.putTopic("orders", topic);
+        assertSame(queue, cache.getQueue("orders"));
+        assertSame(topic, cache.getTopic("orders"));
+        assertNull(cache.getQueue("invoices"));
+        assertEquals(2, cache.size());
+        assertEquals(2, hits.get());
+        assertEquals(2, misses.get());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.getTopic("orders"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        DestinationCache cache = new DestinationCache(2, hits, misses);
+        Queue a = MockJms.create(Queue.class);
+        Queue b = MockJms.create(Queue.class);
+        Queue c = MockJms.create(Queue.class);
+        cache.putQueue("a", a);
+        cache.putQueue("b", b);
+
+        // Looking up a makes b the least recently used
+        assertSame(a, cache.getQueue("a"));
+        cache.putQueue("c", c);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.getQueue("a"));
+        assertNull(cache.getQueue("b"));
+        assertSame(c, cache.getQueue("c"));
+    }
+
+    @Test
+    public void testSharedCounters() {
+        DestinationCache first = new DestinationCache(10, hits, misses);
+        DestinationCache second = new DestinationCache(10, hits, misses);
+        first.putQueue("a", MockJms.create(Queue.class));
+        first.getQueue("a");
+        second.getQueue("a");
+        assertEquals(1, hits.get());
+        assertEquals(1, misses.get());
+    }
+}
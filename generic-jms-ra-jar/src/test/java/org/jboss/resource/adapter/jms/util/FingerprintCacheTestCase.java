@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FingerprintCacheTestCase {
+
+    @Test
+    public void testCapacity() {
+        assertEquals(4, new FingerprintCache(0).getCapacity());
+        assertEquals(4, new FingerprintCache(1).getCapacity());
+        assertEquals(8, new FingerprintCache(8).getCapacity());
+        assertEquals(16, new FingerprintCache(9).getCapacity());
+        assertEquals(1024, new FingerprintCache(1000).getCapacity());
+    }
+
+    @Test
+    public void testFingerprint() {
+        assertEquals(FingerprintCache.fingerprint("ID:1"), FingerprintCache.fingerprint("ID:1"));
+        assertNotEquals(FingerprintCache.fingerprint("ID:1"), FingerprintCache.fingerprint("ID:2"));
+        assertNotEquals(0, FingerprintCache.fingerprint(""));
+    }
+
+    @Test
+    public void testContains() {
+        FingerprintCache cache = new FingerprintCache(1000);
+        long fingerprint = FingerprintCache.fingerprint("ID:1");
+        assertFalse(cache.contains(fingerprint, 0));
+
+        cache.add(fingerprint, 100);
+        assertTrue(cache.contains(fingerprint, 0));
+        assertTrue(cache.contains(fingerprint, 100));
+        // Fingerprints added before the given time have expired
+        assertFalse(cache.contains(fingerprint, 101));
+        assertFalse(cache.contains(FingerprintCache.fingerprint("ID:2"), 0));
+
+        // Adding it again refreshes the time
+        cache.add(fingerprint, 200);
+        assertTrue(cache.contains(fingerprint, 200));
+    }
+
+    @Test
+    public void testEviction() {
+        // A single set of 4 slots
+        FingerprintCache cache = new FingerprintCache(4);
+        for (int i = 1; i <= 4; ++i) {
+            cache.add(i, i * 10);
+        }
+        for (int i = 1; i <= 4; ++i) {
+            assertTrue(cache.contains(i, 0));
+        }
+
+        // The oldest fingerprint makes room
+        cache.add(5, 50);
+        assertFalse(cache.contains(1, 0));
+        assertTrue(cache.contains(5, 0));
+
+        // A refreshed fingerprint is no longer the oldest
+        cache.add(2, 60);
+        cache.add(6, 70);
+        assertTrue(cache.contains(2, 0));
+        assertFalse(cache.contains(3, 0));
+        assertTrue(cache.contains(4, 0));
+        assertTrue(cache.contains(6, 0));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.resource.adapter.jms.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getMedianMicros());
+        assertEquals(0, histogram.getP99Micros());
+    }
+
+    @Test
+    public void testBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5000);
+        histogram.record(999);
+        histogram.record(1000);
+        histogram.record(3000);
+        histogram.record(4000);
+        histogram.record(Long.MAX_VALUE);
+
+        long[] buckets = histogram.getBuckets();
+        assertEquals(2, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(1, buckets[2]);
+        assertEquals(1, buckets[3]);
+        assertEquals(1, buckets[buckets.length - 1]);
+        assertEquals(6, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 1000, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; ++i) {
+            histogram.record(10000);
+        }
+        histogram.record(1000000);
+
+        // 10us is in the bucket of 8 to 15us
+        assertEquals(15, histogram.getMedianMicros());
+        assertEquals(15, histogram.getP90Micros());
+        assertEquals(15, histogram.getP99Micros());
+        // The upper bound of the last bucket is capped by the maximum
+        assertEquals(1000, histogram.getPercentileMicros(1.0));
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals((99 * 10 + 1000) / 100, histogram.getMeanMicros());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int records = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            final long nanos = (i + 1) * 1000L;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < records; ++j) {
+                        histogram.record(nanos);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * records, histogram.getCount());
+        long total = 0;
+        for (long bucket : histogram.getBuckets()) {
+            total += bucket;
+        }
+        assertEquals(threads * records, total);
+        assertEquals(threads, histogram.getMaxMicros());
+    }
+}